@@ -0,0 +1,102 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ *
+ *   Serhan Cakmak, 2024
+ */
+
+package ir;
+
+import java.io.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+
+/**
+ *   Building a HashedIndex, and reading postings lists from a
+ *   PersistentHashedIndex.
+ *
+ *   The persistent index is written to ./index (PersistentHashedIndex.INDEXDIR),
+ *   so the benchmarks should be run from a scratch directory such as
+ *   benchmarks/. An index in ./index that was not written by this benchmark
+ *   is never overwritten.
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+public class IndexBenchmark {
+
+    /** Marks ./index as written by the benchmark. */
+    static final String MARKER_FNAME = ".benchmark";
+
+    @State( Scope.Benchmark )
+    public static class Corpus {
+        @Param( { "2000" } )
+        int numDocs;
+
+        SyntheticCorpus corpus;
+
+        @Setup
+        public void setup() {
+            corpus = new SyntheticCorpus( numDocs, 500, 50000, 42 );
+        }
+    }
+
+
+    @State( Scope.Benchmark )
+    public static class Persistent {
+        /** Rank of the term whose postings are read: a stop word, a common and a rare word. */
+        @Param( { "0", "100", "10000" } )
+        int termRank;
+
+        /** Whether the PostingsCache of the index is on. */
+        @Param( { "false", "true" } )
+        boolean postingsCache;
+
+        PersistentHashedIndex index;
+        String term;
+
+        @Setup
+        public void setup( Corpus corpus ) throws IOException {
+            File dir = new File( PersistentHashedIndex.INDEXDIR );
+            File marker = new File( dir, MARKER_FNAME );
+            String[] files = dir.list();
+            if ( files != null && files.length > 0 && !marker.exists() ) {
+                throw new IllegalStateException( "Refusing to overwrite the index in " + dir.getAbsolutePath() );
+            }
+            dir.mkdirs();
+            marker.createNewFile();
+            for ( String name : new String[] { PersistentHashedIndex.DICTIONARY_FNAME, PersistentHashedIndex.DATA_FNAME,
+                                               PersistentHashedIndex.TERMS_FNAME, PersistentHashedIndex.DOCINFO_FNAME } ) {
+                new File( dir, name ).delete();
+            }
+            index = new PersistentHashedIndex();
+            corpus.corpus.insertInto( index );
+            index.cleanup();
+            if ( !postingsCache ) {
+                index.postingsCache = new PostingsCache( 0 );
+            }
+            term = corpus.corpus.vocabulary[termRank];
+        }
+    }
+
+
+    /** Inserts all tokens of the corpus into a new HashedIndex. */
+    @Benchmark
+    @OutputTimeUnit( TimeUnit.MILLISECONDS )
+    public HashedIndex hashedIndexInsert( Corpus corpus ) {
+        HashedIndex index = new HashedIndex();
+        corpus.corpus.insertInto( index );
+        return index;
+    }
+
+
+    @Benchmark
+    public PostingsList persistentGetPostings( Persistent persistent ) {
+        return persistent.index.getPostings( persistent.term );
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ *
+ *   Serhan Cakmak, 2024
+ */
+
+package ir;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+
+/**
+ *   Building a KGramIndex over the vocabulary of the synthetic corpus, and
+ *   intersecting its postings as the wildcard queries and the SpellChecker do.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+public class KGramIndexBenchmark {
+
+    @Param( { "50000" } )
+    int vocabularySize;
+
+    @Param( { "2", "3" } )
+    int k;
+
+    String[] vocabulary;
+    KGramIndex kgIndex;
+    List<KGramPostingsEntry> p1;
+    List<KGramPostingsEntry> p2;
+
+
+    @Setup
+    public void setup() {
+        vocabulary = new SyntheticCorpus( 0, 0, vocabularySize, 42 ).vocabulary;
+        kgIndex = new KGramIndex( k );
+        for ( String word : vocabulary ) {
+            kgIndex.insert( word );
+        }
+        // the first and last k-grams of a word of average length
+        String word = "^" + vocabulary[vocabularySize / 2] + "$";
+        p1 = kgIndex.getPostings( word.substring( 0, k ));
+        p2 = kgIndex.getPostings( word.substring( word.length() - k ));
+    }
+
+
+    @Benchmark
+    @OutputTimeUnit( TimeUnit.MILLISECONDS )
+    public KGramIndex insert() {
+        KGramIndex index = new KGramIndex( k );
+        for ( String word : vocabulary ) {
+            index.insert( word );
+        }
+        return index;
+    }
+
+
+    @Benchmark
+    public List<KGramPostingsEntry> intersect() {
+        return kgIndex.intersect( p1, p2 );
+    }
+}
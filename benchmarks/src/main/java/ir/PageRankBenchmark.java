@@ -0,0 +1,79 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ *
+ *   Serhan Cakmak, 2024
+ */
+
+package ir;
+
+import java.io.*;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+
+/**
+ *   PageRank.iterate on a synthetic link graph.
+ *
+ *   PageRank is in the default package, which can't be imported, so it is
+ *   loaded and called by reflection. iterate prints the top documents, so
+ *   stdout is silenced while the benchmark runs.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 2, time = 5 )
+@Measurement( iterations = 3, time = 5 )
+@Fork( value = 1, jvmArgsAppend = { "-Xmx2g" } )
+public class PageRankBenchmark {
+
+    @Param( { "2000" } )
+    int numDocs;
+
+    @Param( { "10" } )
+    int outDegree;
+
+    /** The largest number of iterations, as in PageRank.main. */
+    static final int MAX_ITERATIONS = 1000;
+
+    Object pageRank;
+    Method iterate;
+    int docSize;
+    PrintStream stdout;
+
+
+    @Setup
+    public void setup() throws Exception {
+        File links = File.createTempFile( "links", ".txt" );
+        links.deleteOnExit();
+        new SyntheticCorpus( numDocs, 0, 1, 42 ).writeLinks( links, outDegree );
+
+        Class<?> pageRankClass = Class.forName( "PageRank" );
+        Constructor<?> constructor = pageRankClass.getConstructor( String.class );
+        pageRank = constructor.newInstance( links.getPath() );
+        Field docSizeField = pageRankClass.getDeclaredField( "doc_size" );
+        docSizeField.setAccessible( true );
+        docSize = docSizeField.getInt( pageRank );
+        iterate = pageRankClass.getDeclaredMethod( "iterate", int.class, int.class );
+        iterate.setAccessible( true );
+
+        stdout = System.out;
+        System.setOut( new PrintStream( OutputStream.nullOutputStream() ));
+    }
+
+
+    @TearDown
+    public void tearDown() {
+        System.setOut( stdout );
+    }
+
+
+    @Benchmark
+    public Object iterate() throws Exception {
+        return iterate.invoke( pageRank, docSize, MAX_ITERATIONS );
+    }
+}
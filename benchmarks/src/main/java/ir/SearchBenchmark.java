@@ -0,0 +1,148 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ *
+ *   Serhan Cakmak, 2024
+ */
+
+package ir;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+
+/**
+ *   The query evaluation of the Searcher on an in-memory index of the
+ *   synthetic corpus. The postings lists are looked up in the setup, so
+ *   only the evaluation itself is measured.
+ *
+ *   The intersections don't depend on the ranking, so they only use the
+ *   Terms state, and the ranked searches add the ranking and normalization
+ *   types of the Ranking state. The top 10 is measured with the three
+ *   ranked search methods: term-at-a-time, WAND and impact-ordered.
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+public class SearchBenchmark {
+
+    /** Number of documents returned by the top-k searches. */
+    static final int K = 10;
+
+    @State( Scope.Benchmark )
+    public static class Terms {
+        @Param( { "5000" } )
+        int numDocs;
+
+        /**
+         *  The ranks of the query terms in the vocabulary: two frequent words,
+         *  a frequent and a rare word, and two rare words.
+         */
+        @Param( { "0,1", "1,1000", "1000,2000" } )
+        String termRanks;
+
+        HashedIndex index;
+        Searcher searcher;
+        Query query;
+        PostingsList p1;
+        PostingsList p2;
+        ArrayList<String> terms = new ArrayList<String>();
+        ArrayList<PostingsList> allPostings = new ArrayList<PostingsList>();
+        ArrayList<Double> weights = new ArrayList<Double>();
+
+        @Setup
+        public void setup() {
+            SyntheticCorpus corpus = new SyntheticCorpus( numDocs, 300, 50000, 42 );
+            index = new HashedIndex();
+            corpus.insertInto( index );
+            // deterministic PageRanks, instead of reading PageRank_new.txt
+            searcher = new Searcher( index, null, false );
+            searcher.doc_lengths = new Indexer( index, null, null ).computeEuclideanLengths();
+            Random random = new Random( 42 );
+            for ( int d = 0; d < numDocs; d++ ) {
+                double rank = random.nextDouble() / numDocs;
+                searcher.pageRankings.put( d, rank );
+                searcher.maxPageRank = Math.max( searcher.maxPageRank, rank );
+            }
+            for ( String rank : termRanks.split( "," )) {
+                String term = corpus.vocabulary[Integer.parseInt( rank )];
+                terms.add( term );
+                allPostings.add( index.getPostings( term ));
+                weights.add( 1.0 );
+            }
+            query = new Query( String.join( " ", terms ));
+            p1 = allPostings.get( 0 );
+            p2 = allPostings.get( 1 );
+        }
+    }
+
+
+    @State( Scope.Benchmark )
+    public static class Ranking {
+        @Param( { "TF_IDF", "PAGERANK", "COMBINATION" } )
+        RankingType rankingType;
+
+        @Param( { "NUMBER_OF_WORDS" } )
+        NormalizationType normType;
+    }
+
+
+    /** The impact-ordered postings, which only rank by tf-idf. */
+    @State( Scope.Benchmark )
+    public static class Impacts {
+        @Param( { "NUMBER_OF_WORDS" } )
+        NormalizationType normType;
+
+        ImpactIndex impactIndex;
+
+        @Setup
+        public void setup( Terms terms ) {
+            impactIndex = ImpactIndex.build( terms.index, terms.searcher.doc_lengths );
+        }
+    }
+
+
+    @Benchmark
+    public PostingsList intersect( Terms terms ) {
+        return terms.searcher.intersect( terms.p1, terms.p2 );
+    }
+
+
+    @Benchmark
+    public PostingsList positionalIntersection( Terms terms ) {
+        return terms.searcher.positional_intersection( terms.p1, terms.p2, 1 );
+    }
+
+
+    /** All scored documents, as for a query without k. */
+    @Benchmark
+    public PostingsList rankedSearch( Terms terms, Ranking ranking ) {
+        return terms.searcher.ranked_search( terms.allPostings, ranking.rankingType, terms.searcher.pageRankings, ranking.normType, terms.weights );
+    }
+
+
+    /** The 10 best documents, term-at-a-time. */
+    @Benchmark
+    public PostingsList rankedSearchTop10( Terms terms, Ranking ranking ) {
+        return terms.searcher.ranked_search( terms.allPostings, ranking.rankingType, terms.searcher.pageRankings, ranking.normType, terms.weights, K );
+    }
+
+
+    /** The 10 best documents with WAND, as Searcher.search does for ranked queries with a k. */
+    @Benchmark
+    public PostingsList wandSearchTop10( Terms terms, Ranking ranking ) {
+        return terms.searcher.top_k_ranked_search( terms.query, terms.allPostings, ranking.rankingType, ranking.normType, terms.weights, K );
+    }
+
+
+    /** The 10 best tf-idf documents from the impact-ordered postings (-impacts). */
+    @Benchmark
+    public PostingsList impactSearchTop10( Terms terms, Impacts impacts ) {
+        return impacts.impactIndex.search( terms.terms, terms.weights, impacts.normType, K );
+    }
+}
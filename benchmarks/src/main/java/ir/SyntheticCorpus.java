@@ -0,0 +1,181 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ *
+ *   Serhan Cakmak, 2024
+ */
+
+package ir;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+
+/**
+ *   A deterministic synthetic corpus for the benchmarks, so that they can
+ *   run without the davis_wiki or guardian collections.
+ *
+ *   The words of the documents are drawn from a vocabulary with a Zipf
+ *   distribution (exponent 1), like the words of natural text: the word
+ *   of rank r is drawn with probability proportional to 1/r. Word r is
+ *   spelled as r in a bijective base-20 number system of syllables, so all
+ *   words are distinct and only contain letters. The same parameters and
+ *   seed always give the same corpus.
+ */
+public class SyntheticCorpus {
+
+    private static final String[] SYLLABLES = {
+        "ba", "ce", "di", "fo", "gu", "ha", "je", "ki", "lo", "mu",
+        "na", "pe", "ri", "so", "tu", "va", "we", "xi", "yo", "zu"
+    };
+
+    /** The words, by decreasing frequency. */
+    public final String[] vocabulary;
+
+    /** The words of each document, as indexes into the vocabulary. */
+    public final int[][] documents;
+
+    private final long seed;
+
+
+    /**
+     *  Generates <code>numDocs</code> documents of <code>docLength</code>
+     *  words from a vocabulary of <code>vocabularySize</code> words.
+     */
+    public SyntheticCorpus( int numDocs, int docLength, int vocabularySize, long seed ) {
+        this.seed = seed;
+        vocabulary = new String[vocabularySize];
+        for ( int r = 0; r < vocabularySize; r++ ) {
+            vocabulary[r] = word( r );
+        }
+        double[] cumulative = new double[vocabularySize];
+        double sum = 0;
+        for ( int r = 0; r < vocabularySize; r++ ) {
+            sum += 1.0 / (r + 1);
+            cumulative[r] = sum;
+        }
+        Random random = new Random( seed );
+        documents = new int[numDocs][docLength];
+        for ( int d = 0; d < numDocs; d++ ) {
+            for ( int i = 0; i < docLength; i++ ) {
+                int r = Arrays.binarySearch( cumulative, random.nextDouble() * sum );
+                documents[d][i] = Math.min( r < 0 ? -r - 1 : r, vocabularySize - 1 );
+            }
+        }
+    }
+
+
+    /** The spelling of the word of rank r. */
+    static String word( int r ) {
+        StringBuilder word = new StringBuilder();
+        int n = r + 1;
+        while ( n > 0 ) {
+            n--;
+            word.insert( 0, SYLLABLES[n % SYLLABLES.length] );
+            n /= SYLLABLES.length;
+        }
+        return word.toString();
+    }
+
+
+    /** The name of document d. */
+    public String docName( int d ) {
+        return "doc" + d + ".txt";
+    }
+
+
+    /**
+     *  The text of document d, as it would be read from a file: sentences
+     *  of capitalized words with punctuation, and now and then a number or
+     *  an e-mail address for the patterns of the Tokenizer.
+     */
+    public String text( int d ) {
+        StringBuilder text = new StringBuilder();
+        Random random = new Random( seed + d );
+        int[] words = documents[d];
+        boolean sentenceStart = true;
+        for ( int i = 0; i < words.length; i++ ) {
+            String word = vocabulary[words[i]];
+            if ( sentenceStart ) {
+                text.append( Character.toUpperCase( word.charAt( 0 ))).append( word, 1, word.length() );
+                sentenceStart = false;
+            } else {
+                text.append( word );
+            }
+            int r = random.nextInt( 100 );
+            if ( r < 8 ) {
+                text.append( ". " );
+                sentenceStart = true;
+            } else if ( r < 12 ) {
+                text.append( ", " );
+            } else if ( r == 12 ) {
+                text.append( ' ' ).append( random.nextInt( 100 )).append( '.' ).append( random.nextInt( 100 )).append( ' ' );
+            } else if ( r == 13 ) {
+                text.append( ' ' ).append( word ).append( "@example.com " );
+            } else {
+                text.append( ' ' );
+            }
+        }
+        return text.append( '\n' ).toString();
+    }
+
+
+    /** The text of all documents. */
+    public String text() {
+        StringBuilder text = new StringBuilder();
+        for ( int d = 0; d < documents.length; d++ ) {
+            text.append( text( d ));
+        }
+        return text.toString();
+    }
+
+
+    /**
+     *  Inserts all documents into <code>index</code>, with the words as
+     *  tokens and their positions as offsets, like the Indexer does.
+     */
+    public void insertInto( Index index ) {
+        for ( int d = 0; d < documents.length; d++ ) {
+            for ( int i = 0; i < documents[d].length; i++ ) {
+                index.insert( vocabulary[documents[d][i]], d, i );
+            }
+            Index.docNames.put( d, docName( d ));
+            Index.docLengths.put( d, documents[d].length );
+        }
+    }
+
+
+    /**
+     *  Writes a link graph over the documents in the format that PageRank
+     *  reads ("name;target,target,..."). The targets are drawn with a Zipf
+     *  distribution, so some documents get many more inlinks than others,
+     *  and every tenth document has no outlinks.
+     */
+    public void writeLinks( File file, int outDegree ) throws IOException {
+        int numDocs = documents.length;
+        double[] cumulative = new double[numDocs];
+        double sum = 0;
+        for ( int d = 0; d < numDocs; d++ ) {
+            sum += 1.0 / (d + 1);
+            cumulative[d] = sum;
+        }
+        Random random = new Random( seed );
+        try ( Writer out = new BufferedWriter( new OutputStreamWriter( new FileOutputStream( file ), StandardCharsets.UTF_8 ))) {
+            for ( int d = 0; d < numDocs; d++ ) {
+                if ( d % 10 == 9 ) {
+                    continue;
+                }
+                out.write( String.valueOf( d ));
+                out.write( ';' );
+                for ( int i = 0; i < outDegree; i++ ) {
+                    int target = Arrays.binarySearch( cumulative, random.nextDouble() * sum );
+                    out.write( String.valueOf( Math.min( target < 0 ? -target - 1 : target, numDocs - 1 )));
+                    out.write( ',' );
+                }
+                out.write( '\n' );
+            }
+        }
+    }
+}
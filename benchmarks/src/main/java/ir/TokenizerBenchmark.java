@@ -0,0 +1,110 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ *
+ *   Serhan Cakmak, 2024
+ */
+
+package ir;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+
+/**
+ *   Throughput of the Tokenizer on the text of the synthetic corpus,
+ *   with and without the patterns for non-standard words, and per
+ *   document from UTF-8 bytes, through a Reader and with the byte input.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+public class TokenizerBenchmark {
+
+    /** Patterns like the ones in patterns.txt. */
+    static final String[] PATTERNS = {
+        "[a-z0-9._%+-]+@[a-z0-9.-]+\\.[a-z]{2,}",
+        "https?://[^\\s]+",
+        "\\d+(\\.\\d+)+",
+        "\\d{3}-\\d{3}-\\d{4}"
+    };
+
+    @Param( { "1000" } )
+    int numDocs;
+
+    @Param( { "true", "false" } )
+    boolean patterns;
+
+    String text;
+    String patternsFile;
+
+    /** The UTF-8 bytes of every document, as byte arrays and in direct buffers. */
+    byte[][] documents;
+    ByteBuffer[] documentBuffers;
+
+    /** A Tokenizer that is reset for every document, like in the Indexer. */
+    Tokenizer reused;
+
+
+    @Setup
+    public void setup() throws IOException {
+        SyntheticCorpus corpus = new SyntheticCorpus( numDocs, 500, 50000, 42 );
+        text = corpus.text();
+        if ( patterns ) {
+            File file = File.createTempFile( "patterns", ".txt" );
+            file.deleteOnExit();
+            Files.write( file.toPath(), String.join( "\n", PATTERNS ).getBytes( StandardCharsets.UTF_8 ));
+            patternsFile = file.getPath();
+        }
+        documents = new byte[numDocs][];
+        documentBuffers = new ByteBuffer[numDocs];
+        for ( int d = 0; d < numDocs; d++ ) {
+            documents[d] = corpus.text( d ).getBytes( StandardCharsets.UTF_8 );
+            documentBuffers[d] = ByteBuffer.allocateDirect( documents[d].length );
+            documentBuffers[d].put( documents[d] ).flip();
+        }
+        reused = new Tokenizer( null, TokenizerConfig.get( true, false, true, patternsFile ));
+    }
+
+
+    @Benchmark
+    public void tokenize( Blackhole blackhole ) throws IOException {
+        Tokenizer tok = new Tokenizer( new StringReader( text ), true, false, true, patternsFile );
+        while ( tok.hasMoreTokens() ) {
+            blackhole.consume( tok.nextToken() );
+        }
+    }
+
+
+    @Benchmark
+    public void tokenizeDocumentsReader( Blackhole blackhole ) throws IOException {
+        for ( byte[] document : documents ) {
+            reused.reset( new InputStreamReader( new ByteArrayInputStream( document ), StandardCharsets.UTF_8 ));
+            CharSequence token;
+            while (( token = reused.nextTokenView()) != null ) {
+                blackhole.consume( token );
+            }
+        }
+    }
+
+
+    @Benchmark
+    public void tokenizeDocumentsBytes( Blackhole blackhole ) throws IOException {
+        for ( ByteBuffer document : documentBuffers ) {
+            reused.reset( document );
+            CharSequence token;
+            while (( token = reused.nextTokenView()) != null ) {
+                blackhole.consume( token );
+            }
+        }
+    }
+}
@@ -1,2 +1,2 @@
 if not exist classes mkdir classes
-javac -cp . -d classes ir/Engine.java ir/HashedIndex.java ir/HITSRanker.java ir/Index.java ir/Indexer.java ir/KGramIndex.java ir/KGramPostingsEntry.java ir/NormalizationType.java ir/PersistentHashedIndex.java ir/PostingsEntry.java ir/PostingsList.java ir/Query.java ir/QueryType.java ir/RankingType.java ir/Searcher.java ir/SearchGUI.java ir/SpellChecker.java ir/SpellingOptionsDialog.java ir/Tokenizer.java ir/TokenTest.java 
+javac -cp . -d classes ir/Analyzer.java ir/AnalyzerConfig.java ir/BatchSearcher.java ir/Engine.java ir/HashedIndex.java ir/HITSRanker.java ir/ImpactIndex.java ir/Index.java ir/Indexer.java ir/KGramIndex.java ir/KGramPostingsEntry.java ir/MappedFile.java ir/NormalizationType.java ir/PersistentHashedIndex.java ir/PorterStemmer.java ir/PostingsCache.java ir/PostingsEntry.java ir/PostingsCodec.java ir/PostingsList.java ir/Query.java ir/QueryCache.java ir/QueryType.java ir/RankingType.java ir/Searcher.java ir/SearchGUI.java ir/SearchServer.java ir/SpellChecker.java ir/SpellingOptionsDialog.java ir/Tokenizer.java ir/TokenizerConfig.java ir/TokenPatterns.java ir/TokenTest.java 
@@ -0,0 +1,62 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ *
+ *   Serhan Cakmak, 2024
+ */
+
+package ir;
+
+
+/**
+ *   Turns the tokens of the Tokenizer into the terms of the index: drops
+ *   the stop words and the tokens that are too short or too long, and
+ *   stems the others, as given by an AnalyzerConfig. The documents and the
+ *   queries have to be analyzed the same way for the terms to match.
+ *
+ *   An Analyzer reuses its buffers for every token, so it must only be
+ *   used by one thread at a time (like a Tokenizer).
+ */
+public class Analyzer {
+
+    /** What to do with the tokens. */
+    final AnalyzerConfig config;
+
+    /** The stemmer, if the tokens are stemmed. */
+    private final PorterStemmer stemmer;
+
+
+    public Analyzer( AnalyzerConfig config ) {
+        this.config = config;
+        this.stemmer = config.stemming ? new PorterStemmer() : null;
+    }
+
+
+    /**
+     *  Analyzes <code>token</code>.
+     *
+     *  @return the term of the token, which is the token itself or a view
+     *          of the stem that is only valid until the next call, or
+     *          <code>null</code> if the token is dropped.
+     */
+    public CharSequence analyze( CharSequence token ) {
+        int length = token.length();
+        if ( length < config.min_length || length > config.max_length ) {
+            return null;
+        }
+        if ( config.isStopWord( token )) {
+            return null;
+        }
+        if ( stemmer != null ) {
+            return stemmer.stem( token );
+        }
+        return token;
+    }
+
+
+    /** Analyzes <code>token</code> like analyze(CharSequence), but returns a String. */
+    public String analyze( String token ) {
+        CharSequence term = analyze( (CharSequence)token );
+        return term == null ? null : term.toString();
+    }
+}
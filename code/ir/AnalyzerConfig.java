@@ -0,0 +1,198 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ *
+ *   Serhan Cakmak, 2024
+ */
+
+package ir;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Properties;
+import java.util.TreeSet;
+
+
+/**
+ *   The settings of an Analyzer: which tokens are dropped (stop words, and
+ *   tokens that are too short or too long) and whether the others are
+ *   stemmed.
+ *
+ *   An index can only be searched with the configuration it was built
+ *   with, so a persistent index stores its configuration (see store() and
+ *   load()). A configuration is immutable and can be shared by all threads.
+ */
+public final class AnalyzerConfig {
+
+    /** The configuration that leaves all tokens as they are. */
+    public static final AnalyzerConfig NONE = new AnalyzerConfig( null, false, 0, Integer.MAX_VALUE );
+
+    /** Stem the tokens with the Porter stemmer. */
+    public final boolean stemming;
+
+    /** Tokens with fewer characters are dropped. */
+    public final int min_length;
+
+    /** Tokens with more characters are dropped. */
+    public final int max_length;
+
+    /** The stop words, sorted. */
+    private final String[] stop_words;
+
+    /** The stop words in an open addressing hash table, so tokens can be looked up without copying. */
+    private final String[] stop_table;
+
+
+    /**
+     *  @param stop_words The tokens to drop, or null.
+     *  @param stemming Should be set to <code>true</code> if the tokens should be stemmed.
+     *  @param min_length Tokens shorter than this are dropped.
+     *  @param max_length Tokens longer than this are dropped.
+     */
+    public AnalyzerConfig( Collection<String> stop_words, boolean stemming, int min_length, int max_length ) {
+        TreeSet<String> sorted = new TreeSet<String>();
+        if ( stop_words != null ) {
+            sorted.addAll( stop_words );
+        }
+        this.stop_words = sorted.toArray( new String[sorted.size()] );
+        this.stemming = stemming;
+        this.min_length = min_length;
+        this.max_length = max_length;
+        int capacity = 4;
+        while ( capacity < 2*this.stop_words.length ) {
+            capacity *= 2;
+        }
+        stop_table = new String[capacity];
+        for ( String word : this.stop_words ) {
+            int slot = hash( word ) & (capacity-1);
+            while ( stop_table[slot] != null ) {
+                slot = (slot+1) & (capacity-1);
+            }
+            stop_table[slot] = word;
+        }
+    }
+
+
+    /** Returns true if this configuration leaves all tokens as they are. */
+    public boolean isNone() {
+        return !stemming && stop_words.length == 0 && min_length <= 1 && max_length == Integer.MAX_VALUE;
+    }
+
+
+    /** Returns true if <code>token</code> is a stop word. */
+    public boolean isStopWord( CharSequence token ) {
+        int mask = stop_table.length-1;
+        int slot = hash( token ) & mask;
+        String word;
+        while (( word = stop_table[slot] ) != null ) {
+            if ( word.contentEquals( token )) {
+                return true;
+            }
+            slot = (slot+1) & mask;
+        }
+        return false;
+    }
+
+
+    /** String.hashCode of the characters of <code>s</code>, spread over the low bits. */
+    private static int hash( CharSequence s ) {
+        int h = 0;
+        for ( int i = 0; i < s.length(); i++ ) {
+            h = 31*h + s.charAt( i );
+        }
+        return h ^ (h >>> 16);
+    }
+
+
+    /**
+     *  Reads stop words from a file with one word per line. Empty lines
+     *  and lines starting with // are skipped.
+     */
+    public static List<String> readStopWords( String filename ) {
+        ArrayList<String> words = new ArrayList<String>();
+        try ( BufferedReader in = new BufferedReader( new InputStreamReader( new FileInputStream( filename ), StandardCharsets.UTF_8 ))) {
+            String line;
+            while (( line = in.readLine()) != null ) {
+                line = line.trim();
+                if ( !line.startsWith( "//" ) && line.length() > 0 ) {
+                    words.add( line );
+                }
+            }
+        }
+        catch ( IOException e ) {
+            System.err.println( "Warning: IOException reading the stop words from file " + filename );
+        }
+        return words;
+    }
+
+
+    /**
+     *  Writes this configuration as properties, with the stop words
+     *  themselves rather than the name of their file, so that a changed
+     *  file does not change how an existing index is searched.
+     */
+    public void store( OutputStream out ) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty( "stemming", stemming ? "porter" : "none" );
+        properties.setProperty( "min_length", String.valueOf( min_length ));
+        properties.setProperty( "max_length", String.valueOf( max_length ));
+        properties.setProperty( "stop_words", String.join( " ", stop_words ));
+        properties.store( new OutputStreamWriter( out, StandardCharsets.UTF_8 ), "Analyzer of the index" );
+    }
+
+
+    /**
+     *  Reads a configuration written by store().
+     *
+     *  @throws IOException if the configuration cannot be read or is malformed.
+     */
+    public static AnalyzerConfig load( InputStream in ) throws IOException {
+        Properties properties = new Properties();
+        properties.load( new InputStreamReader( in, StandardCharsets.UTF_8 ));
+        String stemming = properties.getProperty( "stemming", "none" );
+        if ( !stemming.equals( "porter" ) && !stemming.equals( "none" )) {
+            throw new IOException( "Unknown stemmer: " + stemming );
+        }
+        String stop_words = properties.getProperty( "stop_words", "" ).trim();
+        try {
+            return new AnalyzerConfig( stop_words.isEmpty() ? null : Arrays.asList( stop_words.split( "\\s+" )),
+                                       stemming.equals( "porter" ),
+                                       Integer.parseInt( properties.getProperty( "min_length", "0" )),
+                                       Integer.parseInt( properties.getProperty( "max_length", String.valueOf( Integer.MAX_VALUE ))));
+        }
+        catch ( NumberFormatException e ) {
+            throw new IOException( "Malformed token length: " + e.getMessage() );
+        }
+    }
+
+
+    public boolean equals( Object o ) {
+        if ( !(o instanceof AnalyzerConfig) ) {
+            return false;
+        }
+        AnalyzerConfig other = (AnalyzerConfig)o;
+        return stemming == other.stemming && min_length == other.min_length && max_length == other.max_length
+            && Arrays.equals( stop_words, other.stop_words );
+    }
+
+
+    public int hashCode() {
+        return Arrays.hashCode( stop_words ) + 31*min_length + 961*max_length + (stemming ? 1 : 0);
+    }
+
+
+    public String toString() {
+        if ( isNone() ) {
+            return "no analysis";
+        }
+        String s = stop_words.length + " stop words, " + (stemming ? "Porter stemming" : "no stemming");
+        if ( min_length > 1 || max_length < Integer.MAX_VALUE ) {
+            s += ", token length " + min_length + ".." + (max_length < Integer.MAX_VALUE ? String.valueOf( max_length ) : "");
+        }
+        return s;
+    }
+}
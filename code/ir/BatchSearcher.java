@@ -0,0 +1,230 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ *
+ *   Serhan Cakmak, 2024
+ */
+
+package ir;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+
+/**
+ *   Runs a file of queries through the searcher, started by Engine with
+ *   -batch FILE.
+ *
+ *   Every line of the file is one query, optionally followed by its query
+ *   type, ranking type and normalization type, separated by tabs:
+ *
+ *   zombie attack	ranked	tf_idf	euclidean
+ *
+ *   The types are written as for SearchServer, and default to a ranked
+ *   tf-idf query normalized by the number of words. Empty lines and lines
+ *   starting with # are skipped. The queries are numbered from 1 in the
+ *   order of the file.
+ *
+ *   The queries are searched by a pool of threads, each search under the
+ *   read lock of the index. The results are written in TREC run format
+ *   ("qid Q0 docname rank score tag"), the first k of each query, and the
+ *   throughput and the latency percentiles are printed on stderr. The
+ *   query cache is not used during the batch, so that a repeated query is
+ *   measured like the first one. A query that fails is reported on stderr
+ *   and has no results in the run, but the others are still searched.
+ */
+public class BatchSearcher {
+
+    /** The tag in the last column of the run file. */
+    public static final String RUN_TAG = "ir";
+
+    /** One query of the batch. */
+    static class BatchQuery {
+        int qid;
+        String text;
+        QueryType queryType = QueryType.RANKED_QUERY;
+        RankingType rankingType = RankingType.TF_IDF;
+        NormalizationType normType = NormalizationType.NUMBER_OF_WORDS;
+
+        PostingsList results;
+        long latencyNanos;
+        boolean failed;
+    }
+
+    private final Engine engine;
+
+
+    public BatchSearcher( Engine engine ) {
+        this.engine = engine;
+    }
+
+
+    /**
+     *  Reads the queries of <code>queryFile</code>.
+     */
+    static ArrayList<BatchQuery> readQueries( String queryFile ) throws IOException {
+        ArrayList<BatchQuery> queries = new ArrayList<BatchQuery>();
+        try ( BufferedReader reader = new BufferedReader( new InputStreamReader( new FileInputStream( queryFile ), StandardCharsets.UTF_8 ))) {
+            String line;
+            int lineNumber = 0;
+            while ( (line = reader.readLine()) != null ) {
+                lineNumber++;
+                if ( line.trim().isEmpty() || line.startsWith( "#" )) {
+                    continue;
+                }
+                String[] fields = line.split( "\t" );
+                BatchQuery query = new BatchQuery();
+                query.qid = queries.size() + 1;
+                query.text = fields[0].toLowerCase().trim();
+                try {
+                    if ( fields.length > 1 ) {
+                        query.queryType = SearchServer.parseEnum( QueryType.class, fields[1], query.queryType, "_QUERY" );
+                    }
+                    if ( fields.length > 2 ) {
+                        query.rankingType = SearchServer.parseEnum( RankingType.class, fields[2], query.rankingType, "" );
+                    }
+                    if ( fields.length > 3 ) {
+                        query.normType = SearchServer.parseEnum( NormalizationType.class, fields[3], query.normType, "" );
+                    }
+                } catch ( IllegalArgumentException e ) {
+                    throw new IOException( queryFile + ":" + lineNumber + ": " + e.getMessage() );
+                }
+                queries.add( query );
+            }
+        }
+        return queries;
+    }
+
+
+    /**
+     *  Searches all queries of <code>queryFile</code> with <code>numThreads</code>
+     *  threads, and writes the first <code>k</code> results of each to
+     *  <code>runFile</code> (or to stdout if it is null).
+     */
+    public void run( String queryFile, String runFile, int numThreads, final int k ) throws IOException {
+        final ArrayList<BatchQuery> queries = readQueries( queryFile );
+        System.err.println( "Searching " + queries.size() + " queries with " + numThreads + " threads..." );
+
+        ExecutorService pool = Executors.newFixedThreadPool( Math.max( 1, numThreads ));
+        ArrayList<Future<?>> done = new ArrayList<Future<?>>();
+        QueryCache cache = engine.searcher.cache;
+        engine.searcher.cache = new QueryCache( 0, 0 );
+        long startTime = System.nanoTime();
+        for ( final BatchQuery query : queries ) {
+            done.add( pool.submit( new Callable<Void>() {
+                public Void call() {
+                    search( query, k );
+                    return null;
+                }
+            }));
+        }
+        try {
+            for ( Future<?> future : done ) {
+                future.get();
+            }
+        } catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            return;
+        } catch ( ExecutionException e ) {
+            throw new RuntimeException( e.getCause() );
+        } finally {
+            pool.shutdown();
+            engine.searcher.cache = cache;
+        }
+        long elapsedNanos = System.nanoTime() - startTime;
+
+        Writer out = runFile != null
+            ? new OutputStreamWriter( new FileOutputStream( runFile ), StandardCharsets.UTF_8 )
+            : new OutputStreamWriter( System.out, StandardCharsets.UTF_8 );
+        PrintWriter writer = new PrintWriter( new BufferedWriter( out ));
+        try {
+            for ( BatchQuery query : queries ) {
+                writeRun( writer, query, k );
+            }
+        } finally {
+            // stdout stays open
+            if ( runFile != null ) {
+                writer.close();
+            } else {
+                writer.flush();
+            }
+        }
+        report( queries, elapsedNanos );
+    }
+
+
+    private void search( BatchQuery query, int k ) {
+        Query q = new Query( query.text, engine.analyzer_config );
+        long start = System.nanoTime();
+        engine.indexLock.readLock().lock();
+        try {
+            query.results = engine.searcher.search( q, query.queryType, query.rankingType, query.normType, k );
+        } catch ( RuntimeException e ) {
+            query.results = null;
+            query.failed = true;
+            System.err.println( "Query " + query.qid + " (\"" + query.text + "\") failed: " + e );
+        } finally {
+            engine.indexLock.readLock().unlock();
+        }
+        query.latencyNanos = System.nanoTime() - start;
+    }
+
+
+    /**
+     *  Writes the first k results of a query as lines of a TREC run.
+     */
+    private void writeRun( PrintWriter writer, BatchQuery query, int k ) {
+        PostingsList results = query.results;
+        for ( int i = 0; results != null && i < results.size() && i < k; i++ ) {
+            String docName = Index.docNames.get( results.docID( i ));
+            writer.println( query.qid + " Q0 " + docName.replaceAll( "\\s", "_" ) + " " + (i + 1) + " " + results.score( i ) + " " + RUN_TAG );
+        }
+    }
+
+
+    /**
+     *  Prints the throughput, the number of failed queries and the latency
+     *  percentiles of the queries that did not fail.
+     */
+    private static void report( ArrayList<BatchQuery> queries, long elapsedNanos ) {
+        if ( queries.isEmpty() ) {
+            System.err.println( "No queries." );
+            return;
+        }
+        long[] latencies = new long[queries.size()];
+        int n = 0;
+        long total = 0;
+        for ( BatchQuery query : queries ) {
+            if ( !query.failed ) {
+                latencies[n++] = query.latencyNanos;
+                total += query.latencyNanos;
+            }
+        }
+        int failed = queries.size() - n;
+        System.err.println( String.format( "%d queries in %.3f s: %.1f queries/s, %d failed", queries.size(), elapsedNanos / 1e9, queries.size() / (elapsedNanos / 1e9), failed ));
+        if ( n == 0 ) {
+            return;
+        }
+        latencies = Arrays.copyOf( latencies, n );
+        Arrays.sort( latencies );
+        System.err.println( String.format( "Latency (ms): mean %.3f, p50 %.3f, p95 %.3f, p99 %.3f, max %.3f",
+                                           total / 1e6 / latencies.length, percentile( latencies, 50 ) / 1e6, percentile( latencies, 95 ) / 1e6,
+                                           percentile( latencies, 99 ) / 1e6, latencies[latencies.length - 1] / 1e6 ));
+    }
+
+
+    /**
+     *  The p-th percentile of the sorted values, by the nearest-rank method.
+     */
+    static long percentile( long[] sorted, double p ) {
+        int rank = (int)Math.ceil( p / 100 * sorted.length );
+        return sorted[Math.max( 0, Math.min( sorted.length, rank ) - 1 )];
+    }
+}
@@ -11,6 +11,7 @@ import java.util.ArrayList;
 import java.io.File;
 import java.io.*;
 import java.util.HashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 
 /**
@@ -45,8 +46,12 @@ public class Engine {
     /** Directories that should be indexed. */
     ArrayList<String> dirNames = new ArrayList<String>();
 
-    /** Lock to prevent simultaneous access to the index. */
-    Object indexLock = new Object();
+    /**
+     *  Lock to prevent simultaneous access to the index. Searches take the
+     *  read lock, so any number of them can run at the same time, and the
+     *  indexer takes the write lock for one document at a time.
+     */
+    ReentrantReadWriteLock indexLock = new ReentrantReadWriteLock();
 
     /** The patterns matching non-standard words (e-mail addresses, etc.) */
     String patterns_file = null;
@@ -60,6 +65,52 @@ public class Engine {
     /** For persistent indexes, we might not need to do any indexing. */
     boolean is_indexing = true;
 
+    /** Number of threads used for indexing, and for searching with -batch. */
+    int num_threads = 1;
+
+    /** For persistent indexes, read the index files through memory mappings. */
+    boolean use_mmap = false;
+
+    /** Tokenize the documents as UTF-8 bytes, without decoding them first (see Tokenizer). */
+    boolean byte_input = false;
+
+    /** Stem the tokens with the Porter stemmer (see Analyzer). */
+    boolean stemming = false;
+
+    /** The file of stop words, which are left out of the index and the queries, or null. */
+    String stopwords_file = null;
+
+    /** Tokens shorter or longer than this are left out of the index and the queries. */
+    int min_token_length = 0;
+    int max_token_length = Integer.MAX_VALUE;
+
+    /**
+     *  How tokens become terms, for the documents and the queries. For an
+     *  index loaded with -ni, this is the configuration it was built with.
+     */
+    AnalyzerConfig analyzer_config = AnalyzerConfig.NONE;
+
+    /** Maximum number of cached search results, 0 turns the cache off. */
+    int cache_entries = QueryCache.DEFAULT_MAX_ENTRIES;
+
+    /** Build impact-ordered postings for top-k tf-idf queries (see ImpactIndex). */
+    boolean build_impacts = false;
+
+    /** Port of the HTTP search service (see SearchServer), or -1 to use the GUI. */
+    int server_port = -1;
+
+    /** The HTTP search service, if -server was given. */
+    SearchServer server;
+
+    /** File of queries to run through the searcher (see BatchSearcher), or null. */
+    String batch_file = null;
+
+    /** The TREC run file written by -batch, or null to write it to stdout. */
+    String run_file = null;
+
+    /** Number of results per query written by -batch. */
+    int batch_k = 1000;
+
 
     /* ----------------------------------------------- */
 
@@ -71,53 +122,150 @@ public class Engine {
      */
     public Engine( String[] args ) {
         decodeArgs( args );
+        analyzer_config = analyzerConfig();
         indexer = new Indexer( index, kgIndex, patterns_file );
+        indexer.analyzerConfig = analyzer_config;
+        indexer.numThreads = num_threads;
+        indexer.byteInput = byte_input;
+        indexer.indexLock = indexLock;
 
         searcher = new Searcher( index, kgIndex );
-        gui = new SearchGUI( this );
-        gui.init();
+        searcher.cache = new QueryCache( cache_entries, QueryCache.DEFAULT_MAX_BYTES );
+        if ( server_port < 0 && batch_file == null ) {
+            gui = new SearchGUI( this );
+            gui.init();
+        }
         /* 
          *   Calls the indexer to index the chosen directory structure.
-         *   Access to the index is synchronized since we don't want to 
-         *   search at the same time we're indexing new files (this might 
-         *   corrupt the index).
+         *   The indexer only locks the index while it inserts a document,
+         *   so searches can be served (on the part that has been indexed so
+         *   far) during indexing. The steps after indexing that change the
+         *   whole index are done with the write lock held.
          */
 
 
         if (is_indexing) {
-            synchronized ( indexLock ) {
-                gui.displayInfoText( "Indexing, please wait..." );
-                long startTime = System.currentTimeMillis();
-                for ( int i=0; i<dirNames.size(); i++ ) {
-                    File dokDir = new File( dirNames.get( i ));
-                    indexer.processFiles( dokDir, is_indexing );
-                }
-                //////////////////////////////////////////////////////////////////////////
-                System.out.println("indexing has ended.");
-                File file = new File("file_length.txt");
-                if (!file.exists()){
-                    for ( int i=0; i<dirNames.size(); i++ ) {
-                        File dokDir = new File( dirNames.get( i ));
-                        indexer.read( dokDir, is_indexing );
-                    }
-                    indexer.write_file_length();
+            searcher.indexing = true;
+            displayInfoText( "Indexing, please wait..." );
+            long startTime = System.currentTimeMillis();
+            for ( int i=0; i<dirNames.size(); i++ ) {
+                File dokDir = new File( dirNames.get( i ));
+                indexer.processFiles( dokDir, is_indexing );
+            }
+            System.out.println("indexing has ended.");
+
+            //////////////////////////////////////////////////////////////////////////
+            System.out.println("KGramIndex has been created.");
+            System.out.println("ve: " + kgIndex.getPostings("ve").size());
+            System.out.println("th he: " + kgIndex.intersect(kgIndex.getPostings("th"), kgIndex.getPostings("he")).size());
+            //////////////////////////////////////////////////////////////////////////
+
+            long elapsedTime = System.currentTimeMillis() - startTime;
+            displayInfoText( String.format( "Indexing done in %.1f seconds.", elapsedTime/1000.0 ));
+            // saveIndex();
+            indexLock.writeLock().lock();
+            try {
+                if ( index instanceof HashedIndex ) {
+                    ((HashedIndex)index).freeze();
+                }
+                index.cleanup();
+                mapIndexFiles();
+                /*
+                 *  The Euclidean lengths are computed from the finished index,
+                 *  and stored with a persistent index so that -ni can load them.
+                 */
+                searcher.doc_lengths = indexer.computeEuclideanLengths();
+                if ( index instanceof PersistentHashedIndex ) {
+                    ((PersistentHashedIndex)index).writeDocNorms( searcher.doc_lengths );
+                    ((PersistentHashedIndex)index).writeAnalyzerConfig( analyzer_config );
+                }
+                searcher.cache.clear();
+                searcher.indexing = false;
+            } finally {
+                indexLock.writeLock().unlock();
+            }
+        } else {
+            indexLock.writeLock().lock();
+            try {
+                mapIndexFiles();
+                if ( index instanceof PersistentHashedIndex ) {
+                    searcher.doc_lengths = ((PersistentHashedIndex)index).readDocNorms();
+                }
+                if ( searcher.doc_lengths == null ) {
+                    searcher.doc_lengths = indexer.computeEuclideanLengths();
                 }
-                searcher.doc_lengths = indexer.read_file_length();
-                //////////////////////////////////////////////////////////////////////////
+            } finally {
+                indexLock.writeLock().unlock();
+            }
+            displayInfoText( "Index is loaded from disk" );
+        }
+        if ( build_impacts ) {
+            long startTime = System.currentTimeMillis();
+            searcher.impactIndex = ImpactIndex.build( index, searcher.doc_lengths );
+            searcher.cache.clear();
+            System.err.println( String.format( "Impact-ordered postings built in %.1f seconds.", (System.currentTimeMillis() - startTime)/1000.0 ));
+        }
+        if ( batch_file != null ) {
+            try {
+                new BatchSearcher( this ).run( batch_file, run_file, num_threads, batch_k );
+            } catch ( IOException e ) {
+                System.err.println( "Could not run the batch: " + e.getMessage() );
+            }
+        }
+        if ( server_port >= 0 ) {
+            try {
+                server = new SearchServer( this, server_port );
+                server.start();
+            } catch ( IOException e ) {
+                System.err.println( "Could not start the search server: " + e );
+            }
+        }
+    }
 
-                //////////////////////////////////////////////////////////////////////////
-                System.out.println("KGramIndex has been created.");
-                System.out.println("ve: " + kgIndex.getPostings("ve").size());
-                System.out.println("th he: " + kgIndex.intersect(kgIndex.getPostings("th"), kgIndex.getPostings("he")).size());
-                //////////////////////////////////////////////////////////////////////////
 
-                long elapsedTime = System.currentTimeMillis() - startTime;
-                gui.displayInfoText( String.format( "Indexing done in %.1f seconds.", elapsedTime/1000.0 ));
-                // saveIndex();
-                index.cleanup();
+    /**
+     *  Returns the configuration of the analyzer: the one given by the
+     *  options when indexing, and the one stored with the index when it
+     *  is loaded with -ni (an index without one was built without analysis).
+     */
+    private AnalyzerConfig analyzerConfig() {
+        AnalyzerConfig config = AnalyzerConfig.NONE;
+        if ( stemming || stopwords_file != null || min_token_length > 0 || max_token_length < Integer.MAX_VALUE ) {
+            config = new AnalyzerConfig( stopwords_file != null ? AnalyzerConfig.readStopWords( stopwords_file ) : null,
+                                         stemming, min_token_length, max_token_length );
+        }
+        if ( !is_indexing && index instanceof PersistentHashedIndex ) {
+            AnalyzerConfig stored = ((PersistentHashedIndex)index).readAnalyzerConfig();
+            if ( stored == null ) {
+                stored = AnalyzerConfig.NONE;
+            }
+            if ( !config.isNone() && !config.equals( stored )) {
+                System.err.println( "Warning: the index was built with " + stored + ", which is used instead of the given " + config );
             }
+            config = stored;
+        }
+        return config;
+    }
+
+
+    /**
+     *  Shows a message in the GUI, or on stderr when running headless.
+     */
+    private void displayInfoText( String text ) {
+        if ( gui != null ) {
+            gui.displayInfoText( text );
         } else {
-            gui.displayInfoText( "Index is loaded from disk" );
+            System.err.println( text );
+        }
+    }
+
+
+    /**
+     *  Switches a persistent index to the memory-mapped read mode if -mmap was given.
+     */
+    private void mapIndexFiles() {
+        if ( use_mmap && index instanceof PersistentHashedIndex ) {
+            ((PersistentHashedIndex)index).mapFiles();
         }
     }
 
@@ -128,6 +276,17 @@ public class Engine {
      *   Decodes the command line arguments.
      */
     private void decodeArgs( String[] args ) {
+        /*
+         *  A headless server usually serves an index that is already on disk,
+         *  so -ni selects the persistent index, and -persistent builds one.
+         *  This is done before the other options, since some of them
+         *  (-pcache, -mb, -lf) configure it.
+         */
+        for ( String arg : args ) {
+            if (( "-ni".equals( arg ) || "-persistent".equals( arg )) && !(index instanceof PersistentHashedIndex) ) {
+                index = new PersistentHashedIndex();
+            }
+        }
         int i=0, j=0;
         while ( i < args.length ) {
             if ( "-d".equals( args[i] )) {
@@ -153,6 +312,102 @@ public class Engine {
             } else if ( "-ni".equals( args[i] )) {
                 i++;
                 is_indexing = false;
+            } else if ( "-persistent".equals( args[i] )) {
+                i++;
+            } else if ( "-threads".equals( args[i] )) {
+                i++;
+                if ( i < args.length ) {
+                    num_threads = Integer.parseInt( args[i++] );
+                }
+            } else if ( "-mmap".equals( args[i] )) {
+                i++;
+                use_mmap = true;
+            } else if ( "-bytes".equals( args[i] )) {
+                i++;
+                byte_input = true;
+            } else if ( "-stem".equals( args[i] )) {
+                i++;
+                stemming = true;
+            } else if ( "-stopwords".equals( args[i] )) {
+                i++;
+                if ( i < args.length ) {
+                    stopwords_file = args[i++];
+                }
+            } else if ( "-minlen".equals( args[i] )) {
+                i++;
+                if ( i < args.length ) {
+                    min_token_length = Integer.parseInt( args[i++] );
+                }
+            } else if ( "-maxlen".equals( args[i] )) {
+                i++;
+                if ( i < args.length ) {
+                    max_token_length = Integer.parseInt( args[i++] );
+                }
+            } else if ( "-impacts".equals( args[i] )) {
+                i++;
+                build_impacts = true;
+            } else if ( "-cache".equals( args[i] )) {
+                i++;
+                if ( i < args.length ) {
+                    cache_entries = Integer.parseInt( args[i++] );
+                }
+            } else if ( "-server".equals( args[i] )) {
+                i++;
+                if ( i < args.length ) {
+                    server_port = Integer.parseInt( args[i++] );
+                }
+            } else if ( "-batch".equals( args[i] )) {
+                i++;
+                if ( i < args.length ) {
+                    batch_file = args[i++];
+                }
+            } else if ( "-run".equals( args[i] )) {
+                i++;
+                if ( i < args.length ) {
+                    run_file = args[i++];
+                }
+            } else if ( "-k".equals( args[i] )) {
+                i++;
+                if ( i < args.length ) {
+                    batch_k = Integer.parseInt( args[i++] );
+                }
+            } else if ( "-pcache".equals( args[i] )) {
+                i++;
+                if ( i < args.length ) {
+                    if ( index instanceof PersistentHashedIndex ) {
+                        ((PersistentHashedIndex)index).postingsCache = new PostingsCache( Long.parseLong( args[i] ) << 20 );
+                    } else if ( index instanceof HashedIndex ) {
+                        ((HashedIndex)index).postingsCache = new PostingsCache( Long.parseLong( args[i] ) << 20 );
+                    }
+                    i++;
+                }
+            } else if ( "-mb".equals( args[i] )) {
+                i++;
+                if ( i < args.length ) {
+                    if ( index instanceof PersistentHashedIndex ) {
+                        ((PersistentHashedIndex)index).memoryBudget = Long.parseLong( args[i] ) << 20;
+                    } else {
+                        System.err.println( "Warning: -mb only applies to the persistent index (-persistent), ignored" );
+                    }
+                    i++;
+                }
+            } else if ( "-lf".equals( args[i] )) {
+                i++;
+                if ( i < args.length ) {
+                    double loadFactor = Double.NaN;
+                    try {
+                        loadFactor = Double.parseDouble( args[i] );
+                    } catch ( NumberFormatException e ) {
+                    }
+                    if ( !(loadFactor > 0 && loadFactor < 1) ) {
+                        System.err.println( "Warning: The load factor must be between 0 and 1, using " + PersistentHashedIndex.DEFAULT_LOAD_FACTOR );
+                    } else if ( index instanceof PersistentHashedIndex ) {
+                        ((PersistentHashedIndex)index).loadFactor = loadFactor;
+                    } else {
+                        System.err.println( "Warning: -lf only applies to the persistent index (-persistent), ignored" );
+                    }
+                    i++;
+                }
             } else {
                 System.err.println( "Unknown option: " + args[i] );
                 break;
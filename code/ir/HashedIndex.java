@@ -10,6 +10,8 @@ package ir;
 
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Map;
+import java.util.function.BiConsumer;
 
 
 /**
@@ -21,6 +23,18 @@ public class HashedIndex implements Index{
     /** The index as a hashtable. */
     private HashMap<String,PostingsList> index = new HashMap<String,PostingsList>();
 
+    /**
+     *  The postings lists after <code>freeze</code>, each one encoded
+     *  with PostingsCodec. Null as long as the index has not been frozen.
+     */
+    private HashMap<String,byte[]> frozen = null;
+
+    /**
+     *  The postings lists of frozen terms that have been decoded, so that
+     *  frequent query terms are not decoded again for every query.
+     */
+    PostingsCache postingsCache = new PostingsCache( PostingsCache.DEFAULT_CAPACITY );
+
 
     /**
      *  Inserts this token in the hashtable.
@@ -33,6 +47,11 @@ public class HashedIndex implements Index{
             index.put(token, postingsList);
         } else {
             PostingsList postingsList = new PostingsList();
+            if (frozen != null && frozen.containsKey(token)) {
+                // the term has been frozen, so it is decoded again to be changed
+                postingsList = PostingsCodec.decode(frozen.remove(token), 0);
+                postingsCache.remove(token);
+            }
             postingsList.add(docID, offset);
             index.put(token, postingsList);
         }
@@ -40,12 +59,58 @@ public class HashedIndex implements Index{
     }
 
 
+    /**
+     *  Converts all postings lists into their compressed, read-only form.
+     *  They take a fraction of the memory of PostingsLists and are decoded
+     *  again when they are looked up, unless they are in postingsCache.
+     *  Inserting a term later on is still possible, it brings back the
+     *  PostingsList of that term.
+     */
+    public void freeze() {
+        if (frozen == null) {
+            frozen = new HashMap<String,byte[]>(index.size() * 4 / 3 + 1);
+        }
+        Iterator<Map.Entry<String,PostingsList>> it = index.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String,PostingsList> entry = it.next();
+            frozen.put(entry.getKey(), PostingsCodec.encode(entry.getValue()));
+            // drop the list right away, so that both forms are never all in memory at once
+            it.remove();
+        }
+        index = new HashMap<String,PostingsList>();
+    }
+
+
     /**
      *  Returns the postings for a specific term, or null
      *  if the term is not in the index.
      */
     public PostingsList getPostings( String token ) {
-        return index.get(token);
+        PostingsList postingsList = index.get(token);
+        if (postingsList == null && frozen != null) {
+            postingsList = postingsCache.get(token);
+            if (postingsList != null) {
+                return postingsList;
+            }
+            byte[] record = frozen.get(token);
+            if (record != null) {
+                postingsList = PostingsCodec.decode(record, 0);
+                postingsCache.put(token, postingsList);
+            }
+        }
+        return postingsList;
+    }
+
+    /**
+     *  Calls <code>action</code> with every term in the index and its postings.
+     */
+    public void forEachPostings( BiConsumer<String,PostingsList> action ) {
+        index.forEach( action );
+        if (frozen != null) {
+            for (Map.Entry<String,byte[]> entry : frozen.entrySet()) {
+                action.accept(entry.getKey(), PostingsCodec.decode(entry.getValue(), 0));
+            }
+        }
     }
 
     @Override
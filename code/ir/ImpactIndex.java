@@ -0,0 +1,247 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ *
+ *   Serhan Cakmak, 2024
+ */
+
+package ir;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.function.BiConsumer;
+
+
+/**
+ *   Impact-ordered copies of the postings lists, for tf-idf ranking.
+ *
+ *   The impact of a posting is the score it adds to its document,
+ *   tf*idf / length, for each normalization type. The impacts of a term are
+ *   quantized into LEVELS levels of its largest impact, and its postings are
+ *   sorted by decreasing impact, so that they form one segment per level.
+ *   Within a segment the docIDs are increasing.
+ *
+ *   Queries are answered score-at-a-time: the segments of all query terms are
+ *   processed in order of decreasing impact, and processing stops as soon as
+ *   the impacts that are left can't change which documents are in the top k.
+ *   Since the impacts are quantized, the scores (and so the order of
+ *   documents with almost the same score) are approximations of the ones
+ *   of Searcher.ranked_search.
+ */
+public class ImpactIndex {
+
+    /** Number of quantization levels of the impacts. */
+    public static final int LEVELS = 255;
+
+    /** The impact-ordered postings of one term for one normalization type. */
+    private static class Impacts {
+        /** The docIDs, by decreasing impact and then increasing docID. */
+        int[] docIDs;
+        /** The impact level of each segment, decreasing. */
+        int[] levels;
+        /** The impact of one level, the largest impact of the term is LEVELS levels. */
+        double levelSize;
+        /** Segment s is docIDs[segmentEnd[s-1] .. segmentEnd[s]-1]. */
+        int[] segmentEnd;
+
+        int segmentStart( int s ) {
+            return s == 0 ? 0 : segmentEnd[s - 1];
+        }
+    }
+
+    /** The impacts of each term, indexed by the ordinal of the normalization type. */
+    private final HashMap<String,Impacts[]> index = new HashMap<String,Impacts[]>();
+
+    /** How often the impacts left are checked, as a fraction of the last check. */
+    private static final double CHECK_FACTOR = 0.9;
+
+
+    /**
+     *  Builds the impact-ordered postings of all terms in <code>index</code>,
+     *  in a single pass over its postings.
+     *
+     *  @param euclideanLengths The Euclidean lengths of the documents, indexed by docID.
+     */
+    public static ImpactIndex build( final Index index, final double[] euclideanLengths ) {
+        final ImpactIndex impactIndex = new ImpactIndex();
+        final NormalizationType[] types = NormalizationType.values();
+        final double N = Index.docNames.size();
+        index.forEachPostings( new BiConsumer<String,PostingsList>() {
+            public void accept( String term, PostingsList postings ) {
+                double idf = Math.log( N / postings.size() );
+                Impacts[] impacts = new Impacts[types.length];
+                for ( NormalizationType type : types ) {
+                    impacts[type.ordinal()] = quantize( postings, idf, type == NormalizationType.EUCLIDEAN ? euclideanLengths : null, index );
+                }
+                impactIndex.index.put( term, impacts );
+            }
+        });
+        return impactIndex;
+    }
+
+
+    /**
+     *  Computes the impacts of the postings of a term and sorts them into
+     *  segments of equal impact level.
+     *
+     *  @param euclideanLengths The Euclidean lengths, or null to normalize by the number of words.
+     */
+    private static Impacts quantize( PostingsList postings, double idf, double[] euclideanLengths, Index index ) {
+        // the postings are sorted as (impact, docID) longs, with the largest impact first
+        long[] keys = new long[postings.size()];
+        float maxImpact = 0;
+        for ( int i = 0; i < postings.size(); i++ ) {
+            int docID = postings.docID( i );
+            double length = euclideanLengths != null ? euclideanLengths[docID] : Index.docLengths.get( docID );
+            float impact = (float)(postings.offsetCount( i ) * idf / length);
+            if ( Float.isNaN( impact ) || Float.isInfinite( impact ) || impact < 0 ) {
+                impact = 0;
+            }
+            maxImpact = Math.max( maxImpact, impact );
+            // non-negative floats compare like their bits
+            keys[i] = ((long)(Integer.MAX_VALUE - Float.floatToIntBits( impact )) << 32) | docID;
+        }
+        Arrays.sort( keys );
+
+        Impacts impacts = new Impacts();
+        impacts.levelSize = maxImpact > 0 ? (double)maxImpact / LEVELS : 1;
+        impacts.docIDs = new int[keys.length];
+        int[] levels = new int[Math.min( keys.length, LEVELS + 1 )];
+        int[] segmentEnd = new int[levels.length];
+        int numSegments = 0;
+        for ( int i = 0; i < keys.length; i++ ) {
+            float impact = Float.intBitsToFloat( Integer.MAX_VALUE - (int)(keys[i] >>> 32) );
+            int level = (int)Math.round( impact / impacts.levelSize );
+            if ( level == 0 && impact > 0 ) {
+                level = 1;
+            }
+            if ( numSegments == 0 || levels[numSegments - 1] != level ) {
+                levels[numSegments++] = level;
+            }
+            impacts.docIDs[i] = (int)keys[i];
+            segmentEnd[numSegments - 1] = i + 1;
+        }
+        impacts.levels = Arrays.copyOf( levels, numSegments );
+        impacts.segmentEnd = Arrays.copyOf( segmentEnd, numSegments );
+        // several impacts can round to the same level, so the docIDs of a segment have to be sorted again
+        for ( int s = 0; s < numSegments; s++ ) {
+            Arrays.sort( impacts.docIDs, impacts.segmentStart( s ), impacts.segmentEnd[s] );
+        }
+        return impacts;
+    }
+
+
+    /**
+     *  Returns the k best documents for the terms with the given weights,
+     *  by decreasing (quantized) tf-idf score, or null if some weight is
+     *  negative (the early termination assumes that scores only grow).
+     */
+    public PostingsList search( ArrayList<String> terms, ArrayList<Double> weights, NormalizationType normType, int k ) {
+        PostingsList answer = new PostingsList();
+        ArrayList<Impacts> termImpacts = new ArrayList<Impacts>();
+        ArrayList<Double> termWeights = new ArrayList<Double>();
+        int numSegments = 0;
+        for ( int i = 0; i < terms.size(); i++ ) {
+            if ( weights.get( i ) < 0 ) {
+                return null;
+            }
+            Impacts[] impacts = index.get( terms.get( i ));
+            if ( impacts != null ) {
+                termImpacts.add( impacts[normType.ordinal()] );
+                termWeights.add( weights.get( i ));
+                numSegments += impacts[normType.ordinal()].levels.length;
+            }
+        }
+        if ( k <= 0 || termImpacts.isEmpty() ) {
+            return answer;
+        }
+
+        // all segments as (term, segment), by decreasing contribution
+        final int[] segmentTerm = new int[numSegments];
+        final int[] segment = new int[numSegments];
+        final double[] contribution = new double[numSegments];
+        Integer[] order = new Integer[numSegments];
+        int n = 0;
+        for ( int t = 0; t < termImpacts.size(); t++ ) {
+            for ( int s = 0; s < termImpacts.get( t ).levels.length; s++ ) {
+                segmentTerm[n] = t;
+                segment[n] = s;
+                contribution[n] = termImpacts.get( t ).levels[s] * termImpacts.get( t ).levelSize * termWeights.get( t );
+                order[n] = n;
+                n++;
+            }
+        }
+        Arrays.sort( order, new Comparator<Integer>() {
+            public int compare( Integer a, Integer b ) {
+                return Double.compare( contribution[b], contribution[a] );
+            }
+        });
+
+        Searcher.Accumulator acc = Searcher.accumulators.get();
+        acc.reset();
+        // the next segment of each term, and the most that the rest of the segments can add to a document
+        int[] next = new int[termImpacts.size()];
+        double lastCheck = Double.POSITIVE_INFINITY;
+        int processed = 0;
+        for ( ; processed < numSegments; processed++ ) {
+            int o = order[processed];
+            Impacts impacts = termImpacts.get( segmentTerm[o] );
+            for ( int i = impacts.segmentStart( segment[o] ); i < impacts.segmentEnd[segment[o]]; i++ ) {
+                acc.add( impacts.docIDs[i], contribution[o] );
+            }
+            next[segmentTerm[o]] = segment[o] + 1;
+
+            double remaining = 0;
+            for ( int t = 0; t < next.length; t++ ) {
+                if ( next[t] < termImpacts.get( t ).levels.length ) {
+                    remaining += termImpacts.get( t ).levels[next[t]] * termImpacts.get( t ).levelSize * termWeights.get( t );
+                }
+            }
+            if ( acc.numTouched > k && remaining <= CHECK_FACTOR * lastCheck ) {
+                lastCheck = remaining;
+                int[] best = acc.top( k + 1 );
+                double kth = acc.scores[acc.touched[best[k - 1]]];
+                double outside = acc.scores[acc.touched[best[k]]];
+                if ( kth > outside + remaining ) {
+                    // no document outside the top k can catch up any more
+                    processed++;
+                    break;
+                }
+            }
+        }
+
+        int[] best = acc.top( k );
+        int[] docIDs = new int[best.length];
+        final double[] scores = new double[best.length];
+        for ( int i = 0; i < best.length; i++ ) {
+            docIDs[i] = acc.touched[best[i]];
+            scores[i] = acc.scores[docIDs[i]];
+        }
+        // the documents in the top k can still get more from the segments that were not processed
+        for ( ; processed < numSegments; processed++ ) {
+            int o = order[processed];
+            Impacts impacts = termImpacts.get( segmentTerm[o] );
+            for ( int i = 0; i < docIDs.length; i++ ) {
+                if ( Arrays.binarySearch( impacts.docIDs, impacts.segmentStart( segment[o] ), impacts.segmentEnd[segment[o]], docIDs[i] ) >= 0 ) {
+                    scores[i] += contribution[o];
+                }
+            }
+        }
+
+        Integer[] rank = new Integer[best.length];
+        for ( int i = 0; i < rank.length; i++ ) {
+            rank[i] = i;
+        }
+        Arrays.sort( rank, new Comparator<Integer>() {
+            public int compare( Integer a, Integer b ) {
+                return Double.compare( scores[b], scores[a] );
+            }
+        });
+        for ( int i : rank ) {
+            answer.append_scored( docIDs[i], scores[i] );
+        }
+        return answer;
+    }
+}
@@ -9,6 +9,8 @@ package ir;
 
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
 
 /**
  *  Defines some common data structures and methods that all types of
@@ -17,10 +19,10 @@ import java.util.Iterator;
 public interface Index {
 
     /** Mapping from document identifiers to document names. */
-    public HashMap<Integer,String> docNames = new HashMap<Integer,String>();
+    public ConcurrentHashMap<Integer,String> docNames = new ConcurrentHashMap<Integer,String>();
     
     /** Mapping from document identifier to document length. */
-    public HashMap<Integer,Integer> docLengths = new HashMap<Integer,Integer>();
+    public ConcurrentHashMap<Integer,Integer> docLengths = new ConcurrentHashMap<Integer,Integer>();
 
     /** Inserts a token into the index. */
     public void insert( String token, int docID, int offset );
@@ -28,6 +30,9 @@ public interface Index {
     /** Returns the postings for a given term. */
     public PostingsList getPostings( String token );
 
+    /** Calls <code>action</code> with every term in the index and its postings. */
+    public void forEachPostings( BiConsumer<String,PostingsList> action );
+
     /** This method is called on exit. */
     public void cleanup();
 
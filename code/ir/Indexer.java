@@ -9,6 +9,12 @@ package ir;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.function.BiConsumer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.*;
 
 
@@ -26,17 +32,54 @@ public class Indexer{
     /** The next docID to be generated. */
     private int lastDocID = 0;
 
-    private int doc_id = 0;
     /** The patterns matching non-standard words (e-mail addresses, etc.) */
     String patterns_file;
 
-   //  HashMap<Integer, HashMap<String, Integer>> word_count = new HashMap<Integer, HashMap<String, Integer>>();
+    /** The settings of the Tokenizers, with the patterns compiled once for all documents. */
+    final TokenizerConfig tokenizerConfig;
 
-    HashMap<Integer, HashSet<String>> words = new HashMap<Integer, HashSet<String>>();
-    HashMap<String, Integer> word_count = new HashMap<>();
-    HashMap<Integer, Double> file_length = new HashMap<Integer, Double>();
+    /** One Tokenizer per tokenizing thread, reset for every document. */
+    private final ThreadLocal<Tokenizer> tokenizers = new ThreadLocal<Tokenizer>() {
+        protected Tokenizer initialValue() {
+            return new Tokenizer(null, tokenizerConfig);
+        }
+    };
+
+    /**
+     *  If true, documents of at most Tokenizer.MAX_BYTE_INPUT bytes are read
+     *  into a ByteBuffer and tokenized as UTF-8 bytes, without
+     *  decoding them with a Reader first. The tokens are the same.
+     */
+    boolean byteInput = false;
+
+    /** One buffer per tokenizing thread for the bytes of a document, if byteInput is set. */
+    private final ThreadLocal<ByteBuffer> byteBuffers = new ThreadLocal<ByteBuffer>() {
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocate(Tokenizer.MAX_BYTE_INPUT);
+        }
+    };
+
+    /**
+     *  How the tokens become terms (stop words, stemming, token lengths).
+     *  The queries have to be analyzed with the same configuration.
+     */
+    AnalyzerConfig analyzerConfig = AnalyzerConfig.NONE;
+
+    /** One Analyzer per tokenizing thread, for the current analyzerConfig. */
+    private final ThreadLocal<Analyzer> analyzers = new ThreadLocal<Analyzer>();
+
+    /** Number of threads tokenizing documents. With 1, everything is done on the calling thread. */
+    int numThreads = 1;
+
+    /**
+     *  Lock of the index, taken for writing for one document at a time, so
+     *  that searches can go on between the documents. Null if the index is
+     *  not shared with searching threads.
+     */
+    ReadWriteLock indexLock = null;
 
-    // HashMap<String, Integer> token_count = new HashMap<String, Integer>();
+    /** How many documents may be waiting to be tokenized or inserted per thread. */
+    static final int DOCUMENTS_PER_THREAD = 64;
 
 
 
@@ -48,6 +91,7 @@ public class Indexer{
         this.index = index;
         this.kgIndex = kgIndex;
         this.patterns_file = patterns_file;
+        this.tokenizerConfig = TokenizerConfig.get(true, false, true, patterns_file);
     }
 
 
@@ -63,6 +107,10 @@ public class Indexer{
      *  all its files and subdirectories are recursively processed.
      */
     public void processFiles( File f, boolean is_indexing ) {
+        if (is_indexing && numThreads > 1) {
+            processFilesInParallel(f);
+            return;
+        }
         // do not try to index fs that cannot be read
         if (is_indexing) {
             if (f.canRead()) {
@@ -76,108 +124,386 @@ public class Indexer{
                     }
                 } else {
                     // First register the document and get a docID
-                    int docID = generateDocID();
-                    if (docID % 1000 == 0) System.err.println("Indexed " + docID + " files");
+                    DocumentPostings doc = new DocumentPostings();
+                    doc.docID = generateDocID();
+                    doc.file = f;
+                    // the document is tokenized first, so that the index is only locked while it is inserted
+                    tokenize(doc);
+                    insertDocument(doc);
+                }
+            }
+        }
+    }
+
+    /**
+     *   The tokens of one document, grouped by term. The terms are kept in the
+     *   order of their first occurrence, and the offsets of each term in
+     *   increasing order.
+     *
+     *   The terms are found with an open-addressing hash table that compares
+     *   the characters of the token views of the Tokenizer, so a String is
+     *   only created for the first occurrence of a term in the document,
+     *   and the offsets are kept in int arrays.
+     */
+    static class DocumentPostings {
+        int docID;
+        File file;
+        int length = 0;
+        boolean failed = false;
+
+        /** The distinct terms, in order of first occurrence. */
+        String[] terms = new String[16];
+        /** The offsets of each term, offsets[t][0 .. counts[t]-1]. */
+        int[][] offsets = new int[16][];
+        int[] counts = new int[16];
+        int numTerms = 0;
+
+        /** The hash table: term number + 1, or 0 for an empty slot. */
+        private int[] slots = new int[32];
+        private int[] hashes = new int[16];
+
+        /**
+         *  Adds an occurrence of <code>token</code> at <code>offset</code>.
+         */
+        void add(CharSequence token, int offset) {
+            int hash = hash(token);
+            int mask = slots.length - 1;
+            int slot = hash & mask;
+            while (slots[slot] != 0) {
+                int t = slots[slot] - 1;
+                if (hashes[t] == hash && contentEquals(terms[t], token)) {
+                    if (counts[t] == offsets[t].length) {
+                        offsets[t] = Arrays.copyOf(offsets[t], 2 * counts[t]);
+                    }
+                    offsets[t][counts[t]++] = offset;
+                    return;
+                }
+                slot = (slot + 1) & mask;
+            }
+            // a new term
+            if (numTerms == terms.length) {
+                terms = Arrays.copyOf(terms, 2 * numTerms);
+                offsets = Arrays.copyOf(offsets, 2 * numTerms);
+                counts = Arrays.copyOf(counts, 2 * numTerms);
+                hashes = Arrays.copyOf(hashes, 2 * numTerms);
+            }
+            terms[numTerms] = token.toString();
+            offsets[numTerms] = new int[] { offset };
+            counts[numTerms] = 1;
+            hashes[numTerms] = hash;
+            numTerms++;
+            slots[slot] = numTerms;
+            if (2 * numTerms > slots.length) {
+                rehash();
+            }
+        }
+
+        private void rehash() {
+            slots = new int[2 * slots.length];
+            int mask = slots.length - 1;
+            for (int t = 0; t < numTerms; t++) {
+                int slot = hashes[t] & mask;
+                while (slots[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                slots[slot] = t + 1;
+            }
+        }
+
+        /** The same hash as String.hashCode, spread over the low bits. */
+        private static int hash(CharSequence s) {
+            int h = 0;
+            for (int i = 0; i < s.length(); i++) {
+                h = 31 * h + s.charAt(i);
+            }
+            return h ^ (h >>> 16);
+        }
+
+        private static boolean contentEquals(String term, CharSequence token) {
+            if (term.length() != token.length()) {
+                return false;
+            }
+            for (int i = 0; i < term.length(); i++) {
+                if (term.charAt(i) != token.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /** Marks the end of the documents in the queues of the parallel indexer. */
+    private static final DocumentPostings END = new DocumentPostings();
+
+
+    /**
+     *  Indexes <code>f</code> like processFiles, but with several threads:
+     *
+     *  - A walker thread traverses the directory tree in the same order as
+     *    processFiles, gives every file its docID and puts it in a bounded queue.
+     *  - numThreads worker threads take files from the queue and tokenize them,
+     *    each with its own Tokenizer, into DocumentPostings.
+     *  - The calling thread inserts the DocumentPostings into the index in
+     *    docID order, so the postings lists come out sorted by docID and the
+     *    index ends up with the same content as with a single thread.
+     *
+     *  A semaphore limits the number of documents between the walker and the
+     *  insertion, which bounds the memory used by the pipeline.
+     *
+     *  An exception in one of the threads does not stop the pipeline (which
+     *  would leave the others waiting for each other): the document is
+     *  skipped, all documents and END markers still go through the queues,
+     *  and the first exception is thrown when everything has finished.
+     */
+    void processFilesInParallel( File f ) {
+        final int capacity = DOCUMENTS_PER_THREAD * numThreads;
+        final BlockingQueue<DocumentPostings> files = new ArrayBlockingQueue<DocumentPostings>( capacity );
+        final BlockingQueue<DocumentPostings> tokenized = new ArrayBlockingQueue<DocumentPostings>( capacity );
+        final Semaphore inFlight = new Semaphore( capacity );
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        int nextDocID = lastDocID;
+
+        Thread walker = new Thread( new Runnable() {
+            public void run() {
+                try {
+                    walk( f, files, inFlight );
+                } catch ( InterruptedException e ) {
+                    Thread.currentThread().interrupt();
+                } catch ( Throwable e ) {
+                    error.compareAndSet( null, e );
+                } finally {
                     try {
-                        Reader reader = new InputStreamReader(new FileInputStream(f), StandardCharsets.UTF_8);
-                        Tokenizer tok = new Tokenizer(reader, true, false, true, patterns_file);
-                        int offset = 0;
-                        while (tok.hasMoreTokens()) {
-                            String token = tok.nextToken();
-                            insertIntoIndex(docID, token, offset++);
+                        for ( int i = 0; i < numThreads; i++ ) {
+                            files.put( END );
                         }
-                        index.docNames.put(docID, f.getPath());
-                        index.docLengths.put(docID, offset);
-                        reader.close();
-                    } catch (IOException e) {
-                        System.err.println("Warning: IOException during indexing.");
+                    } catch ( InterruptedException e ) {
+                        Thread.currentThread().interrupt();
                     }
                 }
             }
+        }, "indexer-walker" );
+        walker.start();
+
+        for ( int i = 0; i < numThreads; i++ ) {
+            Thread worker = new Thread( new Runnable() {
+                public void run() {
+                    try {
+                        while ( true ) {
+                            DocumentPostings doc = files.take();
+                            try {
+                                if ( doc != END ) {
+                                    tokenize( doc );
+                                }
+                            } catch ( Throwable e ) {
+                                doc.failed = true;
+                                error.compareAndSet( null, e );
+                            } finally {
+                                tokenized.put( doc );
+                            }
+                            if ( doc == END ) {
+                                return;
+                            }
+                        }
+                    } catch ( InterruptedException e ) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }, "indexer-worker-" + i );
+            worker.start();
+        }
+
+        // Insert the documents in docID order. Documents that are done before
+        // their predecessors wait in 'pending'.
+        HashMap<Integer, DocumentPostings> pending = new HashMap<Integer, DocumentPostings>();
+        int finishedWorkers = 0;
+        try {
+            while ( finishedWorkers < numThreads || !pending.isEmpty() ) {
+                DocumentPostings doc = pending.remove( nextDocID );
+                if ( doc == null ) {
+                    doc = tokenized.take();
+                    if ( doc == END ) {
+                        finishedWorkers++;
+                    } else {
+                        pending.put( doc.docID, doc );
+                    }
+                    continue;
+                }
+                try {
+                    insertDocument( doc );
+                } catch ( Throwable e ) {
+                    error.compareAndSet( null, e );
+                }
+                inFlight.release();
+                nextDocID++;
+            }
+            walker.join();
+        } catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+        }
+        Throwable e = error.get();
+        if ( e instanceof RuntimeException ) {
+            throw (RuntimeException)e;
+        } else if ( e instanceof Error ) {
+            throw (Error)e;
+        } else if ( e != null ) {
+            throw new RuntimeException( e );
         }
     }
 
-    public void read(File f, boolean is_indexing) {
+
+    /**
+     *  Traverses the directory tree like processFiles, and puts every readable
+     *  file with its new docID in <code>files</code>.
+     */
+    private void walk( File f, BlockingQueue<DocumentPostings> files, Semaphore inFlight ) throws InterruptedException {
+        // do not try to index fs that cannot be read
         if (f.canRead()) {
             if (f.isDirectory()) {
                 String[] fs = f.list();
                 // an IO error could occur
                 if (fs != null) {
                     for (int i = 0; i < fs.length; i++) {
-                        read(new File(f, fs[i]), is_indexing);
+                        walk(new File(f, fs[i]), files, inFlight);
                     }
                 }
             } else {
-                int docID = doc_id++;
-
-                if (docID % 1000 == 0) System.err.println("read " + docID + " files");
+                inFlight.acquire();
+                DocumentPostings doc = new DocumentPostings();
+                doc.docID = generateDocID();
+                doc.file = f;
+                files.put(doc);
+            }
+        }
+    }
 
-                try {
-                    Reader reader = new InputStreamReader(new FileInputStream(f), StandardCharsets.UTF_8);
-                    Tokenizer tok = new Tokenizer(reader, true, false, true, patterns_file);
-
-                    while (tok.hasMoreTokens()) {
-                        String token = tok.nextToken();
-                        if (word_count.containsKey(token)) {
-                            word_count.put(token, word_count.get(token) + 1);
-                        } else {
-                            word_count.put(token, 1);
-                        }
-                    }
-                    file_length.put(docID, get_length());
-                    word_count.clear();
 
-                    reader.close();
-                } catch (IOException e) {
-                    System.out.println(e);
-                    System.err.println("Warning: IOException during indexing.");
-                }
+    /**
+     *  Tokenizes the file of <code>doc</code> into its terms and offsets.
+     */
+    private void tokenize( DocumentPostings doc ) {
+        try {
+            Tokenizer tok = tokenizers.get();
+            if (byteInput && readBytes(doc.file, tok)) {
+                addTokens(doc, tok);
+                return;
+            }
+            try (Reader reader = new InputStreamReader(new FileInputStream(doc.file), StandardCharsets.UTF_8)) {
+                tok.reset(reader);
+                addTokens(doc, tok);
             }
+        } catch (IOException e) {
+            doc.failed = true;
+        }
+    }
 
+
+    /**
+     *  Reads <code>file</code> into the ByteBuffer of this thread and resets
+     *  <code>tok</code> to tokenize it, unless the file is longer than
+     *  Tokenizer.MAX_BYTE_INPUT bytes.
+     *
+     *  @return true if the file was read.
+     */
+    private boolean readBytes( File file, Tokenizer tok ) throws IOException {
+        try (FileInputStream in = new FileInputStream(file)) {
+            FileChannel channel = in.getChannel();
+            if (channel.size() > Tokenizer.MAX_BYTE_INPUT) {
+                return false;
+            }
+            ByteBuffer bytes = byteBuffers.get();
+            bytes.clear();
+            while (bytes.hasRemaining() && channel.read(bytes) >= 0) {
+            }
+            bytes.flip();
+            tok.reset(bytes);
+            return true;
         }
     }
 
-    double get_length() {
-        double length = 0;
-        for (String word : word_count.keySet()) {
-            PostingsList postingsList = index.getPostings(word);
-            double idf = Math.log((double) index.docNames.size() / postingsList.size());
-            double tf = word_count.get(word);
-            length += Math.pow(tf*idf, 2);
+
+    /**
+     *  Adds the terms of the tokens of <code>tok</code> to <code>doc</code>,
+     *  with their offsets. The tokens dropped by the analyzer get no offset,
+     *  so that a phrase query (which is analyzed the same way) still finds
+     *  the remaining terms next to each other.
+     */
+    private void addTokens( DocumentPostings doc, Tokenizer tok ) throws IOException {
+        Analyzer analyzer = analyzers.get();
+        if (analyzer == null || analyzer.config != analyzerConfig) {
+            analyzer = new Analyzer(analyzerConfig);
+            analyzers.set(analyzer);
         }
-        return Math.sqrt(length);
+        boolean analyze = !analyzerConfig.isNone();
+        int offset = 0;
+        CharSequence token;
+        while ((token = tok.nextTokenView()) != null) {
+            if (analyze && (token = analyzer.analyze(token)) == null) {
+                continue;
+            }
+            doc.add(token, offset++);
+        }
+        doc.length = offset;
     }
 
-    void write_file_length() {
+
+    /**
+     *  Inserts a tokenized document into the index, holding the write lock
+     *  of indexLock (if there is one) while doing so.
+     */
+    private void insertDocument( DocumentPostings doc ) {
+        if (doc.docID % 1000 == 0) System.err.println("Indexed " + doc.docID + " files");
+        if (doc.failed) {
+            System.err.println("Warning: IOException during indexing.");
+            return;
+        }
+        if (indexLock != null) {
+            indexLock.writeLock().lock();
+        }
         try {
-            File file = new File("file_length.txt");
-            if (file.exists()){
-                return;
+            for (int t = 0; t < doc.numTerms; t++) {
+                for (int i = 0; i < doc.counts[t]; i++) {
+                    insertIntoIndex(doc.docID, doc.terms[t], doc.offsets[t][i]);
+                }
             }
-            BufferedWriter writer = new BufferedWriter(new FileWriter(file));
-            for (int docID : file_length.keySet()) {
-                writer.write(docID + " " + file_length.get(docID) + "\n");
+            Index.docNames.put(doc.docID, doc.file.getPath());
+            Index.docLengths.put(doc.docID, doc.length);
+        } finally {
+            if (indexLock != null) {
+                indexLock.writeLock().unlock();
             }
-            writer.close();
-        } catch (IOException e) {
-            e.printStackTrace();
         }
     }
 
-    HashMap<Integer, Double> read_file_length() {
-        HashMap<Integer, Double> id_length_map = new HashMap<Integer, Double>();
-        try {
-            File file = new File("file_length.txt");
-            BufferedReader reader = new BufferedReader(new FileReader(file));
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String[] tmp = line.trim().split(" ");
-                id_length_map.put(Integer.parseInt(tmp[0]), Double.parseDouble(tmp[1]));
+
+    /**
+     *  Computes the Euclidean length of every document vector, where the
+     *  component of a term is tf*idf. This is done in one pass over the
+     *  postings lists of the finished index: each posting adds (tf*idf)^2
+     *  to the sum of its document, so there is no need to read the documents
+     *  again.
+     *
+     *  @return The lengths, indexed by docID.
+     */
+    double[] computeEuclideanLengths() {
+        int numDocs = 0;
+        for (int docID : Index.docNames.keySet()) {
+            numDocs = Math.max(numDocs, docID + 1);
+        }
+        final double[] lengths = new double[numDocs];
+        final double N = Index.docNames.size();
+        index.forEachPostings(new BiConsumer<String, PostingsList>() {
+            public void accept(String term, PostingsList postingsList) {
+                double idf = Math.log(N / postingsList.size());
+                for (int i = 0; i < postingsList.size(); i++) {
+                    double tf = postingsList.offsetCount(i);
+                    lengths[postingsList.docID(i)] += (tf*idf) * (tf*idf);
+                }
             }
-        } catch ( IOException e ) {
-            e.printStackTrace();
+        });
+        for (int docID = 0; docID < numDocs; docID++) {
+            lengths[docID] = Math.sqrt(lengths[docID]);
         }
-        return id_length_map;
+        return lengths;
     }
     /* ----------------------------------------------- */
 
@@ -0,0 +1,81 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ *
+ *   Serhan Cakmak, 2024
+ */
+
+package ir;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+
+/**
+ *   A read-only memory mapping of a whole file.
+ *
+ *   A single MappedByteBuffer can't be larger than 2 GB, so the file is
+ *   mapped as a sequence of chunks of CHUNK_SIZE bytes. All reads use
+ *   absolute positions and never touch the position of the buffers, which
+ *   means that any number of threads can read from the same MappedFile
+ *   at the same time.
+ */
+public class MappedFile {
+
+    /** Size of one mapped chunk. */
+    static final int CHUNK_SIZE = 1 << 30;
+
+    /** The mapped chunks, chunk i starts at byte i*CHUNK_SIZE of the file. */
+    private final MappedByteBuffer[] chunks;
+
+    /** The length of the file when it was mapped. */
+    private final long length;
+
+
+    /**
+     *  Maps the file with the given name.
+     */
+    public MappedFile( String fileName ) throws IOException {
+        try ( RandomAccessFile file = new RandomAccessFile( fileName, "r" );
+              FileChannel channel = file.getChannel() ) {
+            length = channel.size();
+            int numChunks = (int)((length + CHUNK_SIZE - 1) / CHUNK_SIZE);
+            chunks = new MappedByteBuffer[numChunks];
+            for ( int i = 0; i < numChunks; i++ ) {
+                long start = (long)i * CHUNK_SIZE;
+                long size = Math.min( CHUNK_SIZE, length - start );
+                chunks[i] = channel.map( FileChannel.MapMode.READ_ONLY, start, size );
+            }
+        }
+    }
+
+
+    /** The number of bytes that are mapped. */
+    public long length() {
+        return length;
+    }
+
+
+    /** Returns the byte at position <code>pos</code>. */
+    public byte get( long pos ) {
+        return chunks[(int)(pos / CHUNK_SIZE)].get( (int)(pos % CHUNK_SIZE) );
+    }
+
+
+    /**
+     *  Copies <code>len</code> bytes starting at position <code>pos</code>
+     *  into <code>dst</code>, starting at <code>off</code>.
+     */
+    public void get( long pos, byte[] dst, int off, int len ) {
+        while ( len > 0 ) {
+            int chunk = (int)(pos / CHUNK_SIZE);
+            int inChunk = (int)(pos % CHUNK_SIZE);
+            int n = Math.min( len, CHUNK_SIZE - inChunk );
+            chunks[chunk].get( inChunk, dst, off, n );
+            pos += n;
+            off += n;
+            len -= n;
+        }
+    }
+}
@@ -9,7 +9,12 @@ package ir;
 
 import java.io.*;
 import java.util.*;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.nio.charset.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.function.BiConsumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.time.Duration;
@@ -25,7 +30,9 @@ import java.time.Instant;
  *
  *   When words are read and indexed, they are first put in an ordinary,
  *   main-memory HashMap. When all words are read, the index is committed
- *   to disk.
+ *   to disk. If the HashMap grows beyond a memory budget before that, it is
+ *   written to disk as a sorted run, and all runs are merged into the
+ *   index at the end.
  */
 public class PersistentHashedIndex implements Index {
 
@@ -44,32 +51,132 @@ public class PersistentHashedIndex implements Index {
     /** The doc info file name */
     public static final String DOCINFO_FNAME = "docInfo";
 
-    /** The dictionary hash table on disk can fit this many entries. */
-    public static final long TABLESIZE = 611953L;  // todo uncomment this
-    //public static final long TABLESIZE = 95L;
+    /** The file name of the Euclidean lengths of the documents */
+    public static final String DOCNORMS_FNAME = "docNorms";
+
+    /** The file name of the configuration of the Analyzer the index was built with */
+    public static final String ANALYZER_FNAME = "analyzer";
+
+    /** Prefix of the file names of the sorted runs written during indexing */
+    public static final String RUN_FNAME = "run";
+
+    /** Default amount of memory (in bytes) the terms in main memory may use before they are flushed to a run. */
+    public static final long DEFAULT_MEMORY_BUDGET = 256L << 20;
+
+    /**
+     *  Rough estimates of what the in-memory index uses for a new term, a new
+     *  document in a postings list, and a new offset of a document.
+     */
+    static final int TERM_BYTES = 120, ENTRY_BYTES = 100, OFFSET_BYTES = 24;
+
+    /** Magic number at the start of the data file ("PHIX"). */
+    public static final int DATA_MAGIC = 0x50484958;
+
+    /** Version of the on-disk postings format. */
+    public static final int FORMAT_VERSION = 3;
+
+    /** The data file starts with the magic number and the format version. */
+    public static final long DATA_HEADER_SIZE = 8L;
+
+    /** Size in bytes of one slot of the dictionary hash table. */
+    public static final int ENTRY_SIZE = 32;
+
+    /** Magic number at the start of the dictionary file ("PHID"). */
+    public static final int DICTIONARY_MAGIC = 0x50484944;
+
+    /**
+     *  The dictionary file starts with a header (magic number, format version,
+     *  table size and number of entries), padded to the size of one slot.
+     */
+    public static final long DICTIONARY_HEADER_SIZE = ENTRY_SIZE;
+
+    /** Default ratio between the number of terms and the number of slots in the dictionary. */
+    public static final double DEFAULT_LOAD_FACTOR = 0.5;
+
+    /**
+     *  The dictionary hash table on disk can fit this many entries. It is
+     *  chosen when the index is written, and read from the dictionary header
+     *  when an existing index is opened.
+     */
+    long tableSize = 0L;
+
+    /** The number of entries in the dictionary hash table. */
+    long numEntries = 0L;
+
+    /** The load factor the dictionary hash table is sized for when it is written. */
+    double loadFactor = DEFAULT_LOAD_FACTOR;
+
+    /** The occupied slots of the dictionary hash table, while it is being written. */
+    BitSet occupied = new BitSet();
+
+    /** Keys of at most this many bytes (in UTF-8) are stored inside their dictionary slot. */
+    public static final int INLINE_KEY_SIZE = 8;
+
     /** The dictionary hash table is stored in this file. */
     RandomAccessFile dictionaryFile;
 
     /** The data (the PostingsLists) are stored in this file. */
     RandomAccessFile dataFile;
 
+    /** Keys that don't fit in their dictionary slot are stored in this file. */
+    RandomAccessFile termsFile;
+
     /** Pointer to the first free memory cell in the data file. */
-    long free = 0L;
+    long free = DATA_HEADER_SIZE;
+
+    /** Pointer to the first free memory cell in the terms file. */
+    long termsFree = 0L;
+
+    /** False if the files on disk are not in a format this class can read. */
+    boolean readable = true;
+
+    /**
+     *  Memory mappings of the dictionary and data files, or null if the
+     *  index is read through the RandomAccessFiles (see mapFiles()).
+     */
+    MappedFile mappedDictionary, mappedData, mappedTerms;
 
-    /** The cache as a main-memory hash map. */
+    /**
+     *  The terms inserted since the last run was written. When the estimated
+     *  size of this map exceeds memoryBudget it is sorted and flushed to disk
+     *  as a run, and the runs are merged into the index when indexing is done.
+     */
     HashMap<String,PostingsList> index = new HashMap<String,PostingsList>();
 
+    /** Estimated number of bytes used by <code>index</code>. */
+    long usedMemory = 0L;
+
+    /** The memory budget (in bytes) for <code>index</code>. */
+    long memoryBudget = DEFAULT_MEMORY_BUDGET;
+
+    /** The runs that have been written so far, in the order of their docIDs. */
+    ArrayList<File> runs = new ArrayList<File>();
+
+    /** Decoded postings lists of the index on disk, see getPostings. */
+    PostingsCache postingsCache = new PostingsCache( PostingsCache.DEFAULT_CAPACITY );
+
 
     // ===================================================================
 
     /**
      *   A helper class representing one entry in the dictionary hashtable.
+     *
+     *   On disk, every entry is a fixed-width slot of ENTRY_SIZE bytes:
+     *
+     *     hash       8 bytes  64-bit fingerprint of the key, 0 marks an empty slot
+     *     ptr        8 bytes  start of the postings record in the data file
+     *     size       4 bytes  length of the postings record
+     *     keyLength  4 bytes  length of the key in UTF-8
+     *     key        8 bytes  the key itself if it is at most INLINE_KEY_SIZE
+     *                         bytes long, otherwise a pointer into the terms file
      */ 
     public class Entry {
-        public String key;
+        /** The key in UTF-8, or null while it has not been read from the terms file. */
+        public byte[] key;
+        public int keyLength;
+        public long keyPtr;
         public long ptr;
-        public String data;
-        public int conflicts;
+        public int size;
         public long hash;
     }
 
@@ -85,6 +192,7 @@ public class PersistentHashedIndex implements Index {
         try {
             dictionaryFile = new RandomAccessFile( INDEXDIR + "/" + DICTIONARY_FNAME, "rw" );
             dataFile = new RandomAccessFile( INDEXDIR + "/" + DATA_FNAME, "rw" );
+            termsFile = new RandomAccessFile( INDEXDIR + "/" + TERMS_FNAME, "rw" );
         } catch ( IOException e ) {
             e.printStackTrace();
         }
@@ -95,6 +203,137 @@ public class PersistentHashedIndex implements Index {
         } catch ( IOException e ) {
             e.printStackTrace();
         }
+
+        checkFormat();
+    }
+
+
+    /**
+     *  Checks the header of an existing data file. Indexes written by
+     *  older versions stored the postings as text, without any header; these
+     *  cannot be read anymore and have to be rebuilt by indexing again.
+     */
+    void checkFormat() {
+        try {
+            if ( dataFile.length() == 0 ) {
+                return;
+            }
+            dataFile.seek( 0 );
+            int magic = dataFile.length() >= DATA_HEADER_SIZE ? dataFile.readInt() : 0;
+            if ( magic != DATA_MAGIC ) {
+                System.err.println( "ERROR: The index in " + INDEXDIR + " uses the old text postings format. Re-index the collection (run without -ni)." );
+                readable = false;
+                return;
+            }
+            int version = dataFile.readInt();
+            if ( version != FORMAT_VERSION ) {
+                System.err.println( "ERROR: The index in " + INDEXDIR + " has format version " + version + ", expected " + FORMAT_VERSION + ". Re-index the collection (run without -ni)." );
+                readable = false;
+                return;
+            }
+            readDictionaryHeader();
+        } catch ( IOException e ) {
+            e.printStackTrace();
+            readable = false;
+        }
+    }
+
+
+    /**
+     *  Switches to the memory-mapped read mode: from now on the dictionary
+     *  and the data file are read through MappedFiles instead of seeking in
+     *  the RandomAccessFiles. Lookups then don't share a file pointer, so
+     *  several threads can call getPostings() at the same time.
+     *
+     *  Must be called after the index has been written (or when it is loaded
+     *  with -ni), since the mapping doesn't see data appended later on.
+     */
+    public void mapFiles() {
+        try {
+            mappedDictionary = new MappedFile( INDEXDIR + "/" + DICTIONARY_FNAME );
+            mappedData = new MappedFile( INDEXDIR + "/" + DATA_FNAME );
+            mappedTerms = new MappedFile( INDEXDIR + "/" + TERMS_FNAME );
+        } catch ( IOException e ) {
+            e.printStackTrace();
+            mappedDictionary = null;
+            mappedData = null;
+            mappedTerms = null;
+        }
+    }
+
+
+    /**
+     *  Reads the table size and the number of entries from the dictionary header.
+     */
+    void readDictionaryHeader() throws IOException {
+        dictionaryFile.seek( 0 );
+        if ( dictionaryFile.length() < DICTIONARY_HEADER_SIZE || dictionaryFile.readInt() != DICTIONARY_MAGIC ) {
+            System.err.println( "ERROR: The dictionary in " + INDEXDIR + " has no valid header. Re-index the collection (run without -ni)." );
+            readable = false;
+            return;
+        }
+        dictionaryFile.readInt();
+        tableSize = dictionaryFile.readLong();
+        numEntries = dictionaryFile.readLong();
+    }
+
+
+    /**
+     *  Writes the dictionary header to the start of <code>file</code>.
+     */
+    static void writeDictionaryHeader( RandomAccessFile file, long tableSize, long numEntries ) throws IOException {
+        file.seek( 0 );
+        file.writeInt( DICTIONARY_MAGIC );
+        file.writeInt( FORMAT_VERSION );
+        file.writeLong( tableSize );
+        file.writeLong( numEntries );
+    }
+
+
+    /**
+     *  Returns the size of a dictionary hash table for <code>numTerms</code>
+     *  terms: the smallest prime that gives a load factor of at most
+     *  <code>loadFactor</code>, and leaves at least one slot free.
+     */
+    static long tableSizeFor( long numTerms, double loadFactor ) {
+        long size = Math.max( (long)Math.ceil( numTerms / loadFactor ), numTerms + 1 );
+        return BigInteger.valueOf( size ).nextProbablePrime().longValue();
+    }
+
+
+    /** The position of a slot in the dictionary file. */
+    static long slotOffset( long slot ) {
+        return DICTIONARY_HEADER_SIZE + slot * ENTRY_SIZE;
+    }
+
+
+    /**
+     *  Empties the dictionary file, and makes it big enough to hold a hash
+     *  table of <code>numTerms</code> terms at the current load factor.
+     */
+    void createDictionary( long numTerms ) throws IOException {
+        tableSize = tableSizeFor( numTerms, loadFactor );
+        numEntries = 0L;
+        occupied.clear();
+        dictionaryFile.setLength( 0 );
+        dictionaryFile.setLength( slotOffset( tableSize ));
+        writeDictionaryHeader( dictionaryFile, tableSize, numEntries );
+    }
+
+
+    /**
+     *  Empties the terms and data files, and writes the magic number and the
+     *  format version at the start of the data file.
+     */
+    void writeHeader() throws IOException {
+        termsFile.setLength( 0 );
+        termsFree = 0L;
+        dataFile.setLength( 0 );
+        dataFile.seek( 0 );
+        dataFile.writeInt( DATA_MAGIC );
+        dataFile.writeInt( FORMAT_VERSION );
+        free = DATA_HEADER_SIZE;
+        readable = true;
     }
 
     /**
@@ -102,10 +341,9 @@ public class PersistentHashedIndex implements Index {
      *
      *  @return The number of bytes written.
      */ 
-    int writeData( String dataString, long ptr ) {
+    int writeData( byte[] data, long ptr ) {
         try {
             dataFile.seek( ptr ); 
-            byte[] data = dataString.getBytes();
             dataFile.write( data );
             return data.length;
         } catch ( IOException e ) {
@@ -116,23 +354,22 @@ public class PersistentHashedIndex implements Index {
 
 
     /**
-     *  Reads data from the data file
+     *  Reads <code>size</code> bytes of data from the data file, starting
+     *  at <code>ptr</code>.
      */ 
-    String readData( long ptr, int size ) {
+    byte[] readData( long ptr, int size ) {
+        byte[] data = new byte[size];
+        if ( mappedData != null ) {
+            mappedData.get( ptr, data, 0, size );
+            return data;
+        }
         try {
-
-            dataFile.seek( ptr );
-            byte[] buffer = new byte[size];
-            dataFile.readFully( buffer );
-            String number = new String( buffer );
-            String size_str = number.split(" ")[0];
-            size = Integer.parseInt(size_str);
-            // skip the size of the data
-            dataFile.seek(ptr + size_str.length());
-            byte[] data = new byte[size];
-            dataFile.readFully( data );
-
-            return new String(data);
+            // the file position is shared, so concurrent readers have to take turns
+            synchronized ( dataFile ) {
+                dataFile.seek( ptr );
+                dataFile.readFully( data );
+            }
+            return data;
         } catch ( IOException e ) {
             e.printStackTrace();
             return null;
@@ -140,111 +377,129 @@ public class PersistentHashedIndex implements Index {
     }
 
 
+    /**
+     *  Appends a key to the terms file.
+     *
+     *  @return The place in the terms file where the key starts.
+     */
+    long writeTerm( byte[] key ) throws IOException {
+        long ptr = termsFree;
+        termsFile.seek( ptr );
+        termsFile.write( key );
+        termsFree += key.length;
+        return ptr;
+    }
+
+
+    /**
+     *  Reads a key of <code>length</code> bytes from the terms file.
+     */
+    byte[] readTerm( long ptr, int length ) throws IOException {
+        byte[] key = new byte[length];
+        if ( mappedTerms != null ) {
+            mappedTerms.get( ptr, key, 0, length );
+        } else {
+            synchronized ( termsFile ) {
+                termsFile.seek( ptr );
+                termsFile.readFully( key );
+            }
+        }
+        return key;
+    }
+
+
     // ==================================================================
     //
     //  Reading and writing to the dictionary file.
 
     /*
-     *  Writes an entry to the dictionary hash table file. 
+     *  Writes an entry to the dictionary hash table file.
      *
-     *  @param entry The key of this entry is assumed to have a fixed length
-     *  @param ptr   The place in the dictionary file to store the entry
+     *  @param entry The entry to write.
+     *  @return The number of occupied slots that had to be skipped.
+     */
+    int writeEntry( Entry entry ) throws IOException {
+        numEntries++;
+        return putSlot( dictionaryFile, occupied, tableSize, entry.hash, slotData( entry ));
+    }
+
+
+    /**
+     *  The dictionary slot of an entry, as it is stored on disk.
      */
-    HashSet<Long> hashes = new HashSet<Long>();
-    void writeEntry( Entry entry, long ptr ) {
+    static byte[] slotData( Entry entry ) {
+        ByteBuffer buffer = ByteBuffer.allocate( ENTRY_SIZE );
+        buffer.putLong( entry.hash );
+        buffer.putLong( entry.ptr );
+        buffer.putInt( entry.size );
+        buffer.putInt( entry.key.length );
+        if ( entry.key.length <= INLINE_KEY_SIZE ) {
+            buffer.put( entry.key );
+        } else {
+            buffer.putLong( entry.keyPtr );
+        }
+        return buffer.array();
+    }
+
+
+    /**
+     *  Writes a slot into a dictionary hash table of <code>size</code> slots.
+     *  The slot is put at the place given by its fingerprint, or in the next
+     *  free place after that one (linear probing).
+     *
+     *  @return The number of occupied slots that had to be skipped.
+     */
+    static int putSlot( RandomAccessFile file, BitSet occupied, long size, long fingerprint, byte[] slotData ) throws IOException {
         int collisions = 0;
-        long hash = hash_func(entry.key);
+        long slot = (fingerprint >>> 1) % size;
         /**
-         * This while loops checks if the calculated hash is already used in the dictionary file.
+         * This while loops checks if the calculated slot is already used in the dictionary file.
          * Some other token hashed to the same value, so we need to find a new place
          * for this token using linear probing technique.
          * */
-        while (hashes.contains(hash)) {
-            hash = (hash + 1) % TABLESIZE;
+        while (occupied.get((int)slot)) {
+            slot = (slot + 1) % size;
             collisions++;
         }
-        hashes.add(hash);
-       /* try {
-            dictionaryFile.seek( hash * 40);
-            byte[] data = (collisions + " " + entry.key + " " + ptr).getBytes();
-            dictionaryFile.write( data );
-        } catch ( IOException e ) {
-            e.printStackTrace();
-        }*/
-
-        try {
-            dictionaryFile.seek( hash * 40);
-            byte[] data = (collisions + " " + entry.key.hashCode() + " " + ptr).getBytes();
-            dictionaryFile.write( data );
-        } catch ( IOException e ) {
-            e.printStackTrace();
-        }
-
+        occupied.set((int)slot);
+        file.seek( slotOffset( slot ));
+        file.write( slotData );
+        return collisions;
     }
 
     /**
      *  Reads an entry from the dictionary file.
      *
-     *  @param ptr The place in the dictionary file where to start reading.
+     *  @param slot The slot of the dictionary hash table to read.
+     *  @return The entry, or null if the slot is empty.
      */
-    Entry readEntry( long ptr ) {
+    Entry readEntry( long slot ) {
         try {
-            dictionaryFile.seek( ptr * 40 );
-            byte[] data = new byte[40];
-
-            dictionaryFile.readFully( data );
-            String res =  new String(data);
-            if (res.trim().isEmpty()) {
-                return null;
+            byte[] data = new byte[ENTRY_SIZE];
+            if ( mappedDictionary != null ) {
+                mappedDictionary.get( slotOffset( slot ), data, 0, ENTRY_SIZE );
+            } else {
+                synchronized ( dictionaryFile ) {
+                    dictionaryFile.seek( slotOffset( slot ));
+                    dictionaryFile.readFully( data );
+                }
             }
-            res = res.trim();
-
-            String[] res_arr = res.split(" ");
-
+            ByteBuffer buffer = ByteBuffer.wrap( data );
             Entry e = new Entry();
-            // First element is the number of conflicts, second element is second hash value,
-            // third element is the pointer to the data file
-            e.conflicts = Integer.parseInt(res_arr[0]);
-            /*e.key = res_arr[1];*/
-            e.hash = Long.parseLong(res_arr[1]);
-            /**
-             * Preference explanation:
-             *
-             * Since there is no limit for token size and we need to get a fixed size data from the dictionary file
-             * I just ignore the conflicts happening from very long tokens. Since it is a very rare case, in my opinion
-             * it is not a problem. But theoretically, we can solve this problem by increasing the size of
-             * the dictionary considering the trade of between dictionary file size and 100% success rate.
-             *
-             *
-             * Another solution might be like the following:
-             * Again we will calculate the hash of the token and get the pointer from the dictionary file.
-             * But this instead of writing the token for tracking collisions to dictionary file,
-             * I would write another hash function to control if it's the token that I am trying to find or not.
-             * If it is not, I would continue to search for the token by incrementing the hash value by 1.
-             *
-             * But this solution is not perfect as well since two different tokens might have the same
-             * hash value for both of these hash functions. And I might get the wrong search result.
-             *
-             * My preference is to get correct results every time even though it may rarely print
-             * "This entry conflicts with another entry which exceeds its determined size." message.
-             *
-             * This two solutions resemble montecarlo and las vegas algorithms. My approach is like las vegas.
-             *
-             * @update: I have changed the approach in order to decrease the indexing time and increase the performance.
-             * I noticed that even though this approach is not perfect, it is still better than the other approach
-             * considering the probability of getting 2 hash codes from 2 different words is way unlikely compared to
-             * the probabilty of getting a token whose length is more than 40 chars.
-             *
-             * */
-            /*if (res_arr.length < 3) {
-                System.out.println("This entry conflicts with another entry which exceeds its determined size.");
+            e.hash = buffer.getLong();
+            if ( e.hash == 0 ) {
                 return null;
-            }*/
-
-            // I chose 20 because the number that states how long the data, shouldn't be longer than 20 chars for Davis_wiki .
-            e.data = readData(Long.parseLong( res_arr[2]), 20);
+            }
+            e.ptr = buffer.getLong();
+            e.size = buffer.getInt();
+            e.keyLength = buffer.getInt();
+            if ( e.keyLength <= INLINE_KEY_SIZE ) {
+                e.key = new byte[e.keyLength];
+                buffer.get( e.key );
+            } else {
+                e.keyPtr = buffer.getLong();
+            }
             return e;
-
         } catch ( IOException e ) {
             e.printStackTrace();
             return null;
@@ -252,6 +507,23 @@ public class PersistentHashedIndex implements Index {
     }
 
 
+    /**
+     *  Checks that the entry really belongs to <code>key</code>. Equal
+     *  fingerprints are not enough, since different keys can have the same
+     *  fingerprint. Long keys are only read from the terms file when the
+     *  length and the fingerprint already match.
+     */
+    boolean hasKey( Entry entry, byte[] key ) throws IOException {
+        if ( entry.keyLength != key.length ) {
+            return false;
+        }
+        if ( entry.key == null ) {
+            entry.key = readTerm( entry.keyPtr, entry.keyLength );
+        }
+        return Arrays.equals( entry.key, key );
+    }
+
+
     // ==================================================================
 
     /**
@@ -292,38 +564,353 @@ public class PersistentHashedIndex implements Index {
 
 
     /**
-     *  Write the index to files.
+     *  Writes the Euclidean lengths of the documents (indexed by docID) to
+     *  file, as their number followed by the lengths as doubles.
+     */
+    public void writeDocNorms( double[] norms ) {
+        try ( DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( INDEXDIR + "/" + DOCNORMS_FNAME )))) {
+            out.writeInt( norms.length );
+            for ( double norm : norms ) {
+                out.writeDouble( norm );
+            }
+        } catch ( IOException e ) {
+            e.printStackTrace();
+        }
+    }
+
+
+    /**
+     *  Writes the configuration of the Analyzer that turned the tokens of
+     *  the documents into the terms of the index, so that the queries on
+     *  an index loaded with -ni are analyzed the same way.
+     */
+    public void writeAnalyzerConfig( AnalyzerConfig config ) {
+        try ( OutputStream out = new BufferedOutputStream( new FileOutputStream( INDEXDIR + "/" + ANALYZER_FNAME ))) {
+            config.store( out );
+        } catch ( IOException e ) {
+            e.printStackTrace();
+        }
+    }
+
+
+    /**
+     *  Reads the configuration written by writeAnalyzerConfig.
+     *
+     *  @return The configuration, or null if there is no such file (the
+     *          index was built before analyzers were stored) or it is malformed.
+     */
+    public AnalyzerConfig readAnalyzerConfig() {
+        try ( InputStream in = new BufferedInputStream( new FileInputStream( INDEXDIR + "/" + ANALYZER_FNAME ))) {
+            return AnalyzerConfig.load( in );
+        } catch ( FileNotFoundException e ) {
+            return null;
+        } catch ( IOException e ) {
+            System.err.println( "ERROR: Could not read " + INDEXDIR + "/" + ANALYZER_FNAME + ": " + e.getMessage() );
+            return null;
+        }
+    }
+
+
+    /**
+     *  Reads the Euclidean lengths of the documents written by writeDocNorms.
+     *
+     *  @return The lengths indexed by docID, or null if there is no such file.
+     */
+    public double[] readDocNorms() {
+        try ( DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( INDEXDIR + "/" + DOCNORMS_FNAME )))) {
+            double[] norms = new double[in.readInt()];
+            for ( int i = 0; i < norms.length; i++ ) {
+                norms[i] = in.readDouble();
+            }
+            return norms;
+        } catch ( FileNotFoundException e ) {
+            return null;
+        } catch ( IOException e ) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+
+    /**
+     *  Computes the 64-bit fingerprint of a key (FNV-1a, followed by a final
+     *  mixing step so that the low bits depend on all bytes). Never returns 0,
+     *  which marks an empty slot.
      */
-    public long hash_func(String word){
-        return (word.hashCode() & Integer.MAX_VALUE) % TABLESIZE; // To solve the negative hash problem
+    public static long fingerprint( byte[] key ) {
+        long h = 0xcbf29ce484222325L;
+        for ( byte b : key ) {
+            h ^= b & 0xFF;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h == 0 ? 1 : h;
+    }
+
+    /**
+     *  The slot of the dictionary hash table where the search for a key with
+     *  the given fingerprint starts.
+     */
+    public long hash_func(long fingerprint){
+        return (fingerprint >>> 1) % tableSize; // To solve the negative hash problem
     }
 
+    /**
+     *  Write the index to files.
+     */
     public void writeIndex() {
         int collisions = 0;
         try {
             // Write the 'docNames' and 'docLengths' hash maps to a file
             writeDocInfo();
+            writeHeader();
+            createDictionary(index.size());
 
             for (Map.Entry<String, PostingsList> entry : index.entrySet()) {
-                // token
-                String key = entry.getKey();
-                // postings list
-                String value = entry.getValue().toString();
+                Entry e = writePostings(entry.getKey(), PostingsCodec.encode(entry.getValue()));
                 //write to dictionary
-                Entry e = new Entry();
-                e.key = key;
-                e.ptr = free;
-                writeEntry(e, free);
-                //write to data file
-                int byte_size =  writeData(value, free);
-                //update free
-                free += byte_size;
+                collisions += writeEntry(e);
             }
+            writeDictionaryHeader(dictionaryFile, tableSize, numEntries);
 
         } catch ( IOException e ) {
             e.printStackTrace();
         }
         System.err.println( collisions + " collisions." );
+        System.err.println( numEntries + " entries in a table of size " + tableSize + "." );
+    }
+
+
+    /**
+     *  Writes the postings record of a term to the data file (and the term to
+     *  the terms file if it doesn't fit in its slot).
+     *
+     *  @return The dictionary entry of the term.
+     */
+    Entry writePostings( String term, byte[] record ) throws IOException {
+        byte[] key = term.getBytes(StandardCharsets.UTF_8);
+        Entry e = new Entry();
+        e.key = key;
+        e.hash = fingerprint(key);
+        e.ptr = free;
+        e.size = record.length;
+        if (key.length > INLINE_KEY_SIZE) {
+            e.keyPtr = writeTerm(key);
+        }
+        //write to data file
+        int byte_size =  writeData(record, free);
+        //update free
+        free += byte_size;
+        return e;
+    }
+
+
+    // ==================================================================
+    //
+    //  Sorted runs, for indexing collections that don't fit in memory.
+
+    /**
+     *  Sorts the terms in main memory and writes them with their postings to
+     *  a new run file. Each term is written as its length in UTF-8 and its
+     *  bytes, followed by its postings record (see PostingsCodec).
+     */
+    void flushRun() throws IOException {
+        File file = new File( INDEXDIR + "/" + RUN_FNAME + runs.size() );
+        ArrayList<String> terms = new ArrayList<String>( index.keySet() );
+        Collections.sort( terms );
+        try ( DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( file )))) {
+            for ( String term : terms ) {
+                byte[] key = term.getBytes( StandardCharsets.UTF_8 );
+                out.writeInt( key.length );
+                out.write( key );
+                out.write( PostingsCodec.encode( index.get( term )));
+            }
+        }
+        System.err.println( "Wrote run " + runs.size() + " with " + terms.size() + " terms" );
+        runs.add( file );
+        index.clear();
+        usedMemory = 0L;
+    }
+
+
+    /**
+     *   Reads the terms of one run, in sorted order.
+     */
+    static class RunReader {
+        DataInputStream in;
+        /** The order of the run, runs with lower numbers have lower docIDs. */
+        int number;
+        String term;
+        byte[] record;
+
+        RunReader( File file, int number ) throws IOException {
+            in = new DataInputStream( new BufferedInputStream( new FileInputStream( file )));
+            this.number = number;
+        }
+
+        /**
+         *  Reads the next term and its postings record.
+         *
+         *  @return false at the end of the run.
+         */
+        boolean next() throws IOException {
+            int keyLength;
+            try {
+                keyLength = in.readInt();
+            } catch ( EOFException e ) {
+                in.close();
+                return false;
+            }
+            byte[] key = new byte[keyLength];
+            in.readFully( key );
+            term = new String( key, StandardCharsets.UTF_8 );
+            // The record starts with its own length as a VByte.
+            byte[] prefix = new byte[PostingsCodec.MAX_VINT_LENGTH];
+            int prefixLength = 0;
+            int size = 0;
+            byte b;
+            do {
+                b = in.readByte();
+                prefix[prefixLength] = b;
+                size |= (b & 0x7F) << (7*prefixLength);
+                prefixLength++;
+            } while ( b < 0 );
+            record = new byte[prefixLength + size];
+            System.arraycopy( prefix, 0, record, 0, prefixLength );
+            in.readFully( record, prefixLength, size );
+            return true;
+        }
+    }
+
+
+    /**
+     *  Merges all runs into the index files. The merged terms are written to
+     *  the data file as they come out of the merge, and their dictionary
+     *  slots to a temporary file, since the size of the dictionary hash table
+     *  is only known when all terms have been seen. The slots are then put
+     *  into the dictionary in a second, sequential pass.
+     */
+    void mergeRuns() throws IOException {
+        writeDocInfo();
+        writeHeader();
+
+        PriorityQueue<RunReader> queue = new PriorityQueue<RunReader>( Math.max( 1, runs.size() ), new Comparator<RunReader>() {
+            public int compare( RunReader r1, RunReader r2 ) {
+                int c = r1.term.compareTo( r2.term );
+                return c != 0 ? c : Integer.compare( r1.number, r2.number );
+            }
+        });
+        for ( int i = 0; i < runs.size(); i++ ) {
+            RunReader reader = new RunReader( runs.get( i ), i );
+            if ( reader.next() ) {
+                queue.add( reader );
+            }
+        }
+
+        File slotsFile = new File( INDEXDIR + "/" + DICTIONARY_FNAME + ".slots" );
+        long numTerms = 0;
+        try ( DataOutputStream slots = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( slotsFile )))) {
+            while ( !queue.isEmpty() ) {
+                RunReader reader = queue.poll();
+                String term = reader.term;
+                byte[] record = reader.record;
+                if ( !queue.isEmpty() && queue.peek().term.equals( term )) {
+                    // The term occurs in several runs. The runs are polled in
+                    // order, so the postings can simply be appended.
+                    PostingsList postings = PostingsCodec.decode( record, 0 );
+                    do {
+                        RunReader other = queue.poll();
+                        appendPostings( postings, PostingsCodec.decode( other.record, 0 ));
+                        if ( other.next() ) {
+                            queue.add( other );
+                        }
+                    } while ( !queue.isEmpty() && queue.peek().term.equals( term ));
+                    record = PostingsCodec.encode( postings );
+                }
+                if ( reader.next() ) {
+                    queue.add( reader );
+                }
+                slots.write( slotData( writePostings( term, record )));
+                numTerms++;
+            }
+        }
+
+        int collisions = 0;
+        createDictionary( numTerms );
+        try ( DataInputStream slots = new DataInputStream( new BufferedInputStream( new FileInputStream( slotsFile )))) {
+            byte[] slot = new byte[ENTRY_SIZE];
+            for ( long i = 0; i < numTerms; i++ ) {
+                slots.readFully( slot );
+                collisions += putSlot( dictionaryFile, occupied, tableSize, ByteBuffer.wrap( slot ).getLong(), slot );
+                numEntries++;
+            }
+        }
+        writeDictionaryHeader( dictionaryFile, tableSize, numEntries );
+
+        slotsFile.delete();
+        for ( File run : runs ) {
+            run.delete();
+        }
+        runs.clear();
+        System.err.println( collisions + " collisions." );
+        System.err.println( numEntries + " entries in a table of size " + tableSize + "." );
+    }
+
+
+    /**
+     *  Appends the postings of <code>next</code> to <code>postings</code>. A
+     *  run may have been written in the middle of a document, so the first
+     *  document of <code>next</code> can be the last one of <code>postings</code>.
+     */
+    static void appendPostings( PostingsList postings, PostingsList next ) {
+        for ( int i = 0; i < next.size(); i++ ) {
+            int docID = next.docID( i );
+            for ( int j = 0; j < next.offsetCount( i ); j++ ) {
+                postings.add( docID, next.offset( i, j ));
+            }
+        }
+    }
+
+
+    // ==================================================================
+
+    /**
+     *  Rebuilds the dictionary hash table on disk for a new load factor. The
+     *  slots already contain the fingerprints of their keys, so they can be
+     *  moved to the new table as they are. The new table is written next to
+     *  the old one and then replaces it.
+     */
+    public void rehash( double newLoadFactor ) throws IOException {
+        long newTableSize = tableSizeFor( numEntries, newLoadFactor );
+        File newFile = new File( INDEXDIR + "/" + DICTIONARY_FNAME + ".rehash" );
+        int collisions = 0;
+        try ( RandomAccessFile out = new RandomAccessFile( newFile, "rw" );
+              DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( INDEXDIR + "/" + DICTIONARY_FNAME )))) {
+            out.setLength( 0 );
+            out.setLength( slotOffset( newTableSize ));
+            writeDictionaryHeader( out, newTableSize, numEntries );
+            BitSet newOccupied = new BitSet();
+            byte[] slotData = new byte[ENTRY_SIZE];
+            in.skipBytes( (int)DICTIONARY_HEADER_SIZE );
+            for ( long slot = 0; slot < tableSize; slot++ ) {
+                in.readFully( slotData );
+                long fingerprint = ByteBuffer.wrap( slotData ).getLong();
+                if ( fingerprint != 0 ) {
+                    collisions += putSlot( out, newOccupied, newTableSize, fingerprint, slotData );
+                }
+            }
+        }
+        dictionaryFile.close();
+        Files.move( newFile.toPath(), new File( INDEXDIR + "/" + DICTIONARY_FNAME ).toPath(), StandardCopyOption.REPLACE_EXISTING );
+        dictionaryFile = new RandomAccessFile( INDEXDIR + "/" + DICTIONARY_FNAME, "rw" );
+        System.err.println( "Rehashed " + numEntries + " entries from a table of size " + tableSize + " to " + newTableSize + " (" + collisions + " collisions)." );
+        tableSize = newTableSize;
+        loadFactor = newLoadFactor;
+        if ( mappedDictionary != null ) {
+            mapFiles();
+        }
     }
 
 
@@ -335,76 +922,157 @@ public class PersistentHashedIndex implements Index {
      *  if the term is not in the index.
      */
     public PostingsList getPostings( String token ) {
+        if (!readable || tableSize == 0) {
+            return null;
+        }
+        PostingsList postings = postingsCache.get(token);
+        if (postings != null) {
+            return postings;
+        }
         Entry res;
-        long hash = hash_func(token);
-        long actual_hash = token.hashCode();
-        while (true){
-            res = readEntry(hash);
-            if (res == null) {
-                break;
-            }
-            /**
-             * This if condition was checking the word directly before.
-             *
-             * */
-            if (res.hash == actual_hash) {
-                break;
+        byte[] key = token.getBytes(StandardCharsets.UTF_8);
+        long fingerprint = fingerprint(key);
+        long slot = hash_func(fingerprint);
+        try {
+            while (true){
+                res = readEntry(slot);
+                if (res == null) {
+                    break;
+                }
+                /**
+                 * The fingerprint rules out almost every other key in the probe sequence without reading
+                 * any more data, and the key bytes are compared to rule out the rest.
+                 * */
+                if (res.hash == fingerprint && hasKey(res, key)) {
+                    break;
+                }
+                slot = (slot + 1) % tableSize;
             }
-            hash = (hash + 1) % TABLESIZE;
+        } catch ( IOException e ) {
+            e.printStackTrace();
+            return null;
         }
 
-        PostingsList postingsList = new PostingsList();
         if (res == null) {
             return null;
         }
 
-        String[] postings = res.data.split("\\*");
-
         /**
-         * Tried to optimize the performance but after trying different approaches the performance didn't change.
+         * The postings are stored in binary (see PostingsCodec), so there is no text left to split and parse.
          */
-        for (String posting : postings) {
-            posting = posting.trim();
-            String[] data = posting.split(" ");
-            //int docID = new Integer(data[0]);
-            int docID = Integer.parseInt(data[0]);
-            // double score = Double.parseDouble(data[1]);
-            for (int i = 2; i < data.length; i++) {
-                //int a =  new Integer(data[i]);
-                postingsList.add(docID, Integer.parseInt(data[i]));
-            }
-        }
+        postings = PostingsCodec.decode(readData(res.ptr, res.size), 0);
+        postingsCache.put(token, postings);
+        return postings;
+    }
 
 
-        return postingsList;
+    /**
+     *  Calls <code>action</code> with every term in the index on disk and its
+     *  postings, in the order of the dictionary slots.
+     */
+    public void forEachPostings( BiConsumer<String,PostingsList> action ) {
+        if (!readable || tableSize == 0) {
+            return;
+        }
+        try ( DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( INDEXDIR + "/" + DICTIONARY_FNAME )))) {
+            in.skipBytes( (int)DICTIONARY_HEADER_SIZE );
+            byte[] slot = new byte[ENTRY_SIZE];
+            for ( long i = 0; i < tableSize; i++ ) {
+                in.readFully( slot );
+                ByteBuffer buffer = ByteBuffer.wrap( slot );
+                long hash = buffer.getLong();
+                if ( hash == 0 ) {
+                    continue;
+                }
+                long ptr = buffer.getLong();
+                int size = buffer.getInt();
+                int keyLength = buffer.getInt();
+                byte[] key;
+                if ( keyLength <= INLINE_KEY_SIZE ) {
+                    key = new byte[keyLength];
+                    buffer.get( key );
+                } else {
+                    key = readTerm( buffer.getLong(), keyLength );
+                }
+                action.accept( new String( key, StandardCharsets.UTF_8 ), PostingsCodec.decode( readData( ptr, size ), 0 ));
+            }
+        } catch ( IOException e ) {
+            e.printStackTrace();
+        }
     }
 
 
     /**
-     *  Inserts this token in the main-memory hashtable.
+     *  Inserts this token in the main-memory hashtable. When the hashtable
+     *  has grown beyond the memory budget, it is flushed to disk as a run.
      */
     public void insert( String token, int docID, int offset ) {
-        if (index.containsKey(token)) {
-            PostingsList postingsList = index.get(token);
-            // postingsList.add(docID, offset);
-            postingsList.add(docID, offset);
-            index.put(token, postingsList);
-        } else {
-            PostingsList postingsList = new PostingsList();
-            /*postingsList.add(docID, offset);*/
-            postingsList.add(docID, offset);
+        PostingsList postingsList = index.get(token);
+        if (postingsList == null) {
+            postingsList = new PostingsList();
             index.put(token, postingsList);
+            usedMemory += TERM_BYTES + 2 * token.length();
+        }
+        int size = postingsList.size();
+        postingsList.add(docID, offset);
+        usedMemory += (postingsList.size() > size) ? ENTRY_BYTES + OFFSET_BYTES : OFFSET_BYTES;
+
+        if (usedMemory > memoryBudget) {
+            try {
+                flushRun();
+            } catch ( IOException e ) {
+                e.printStackTrace();
+            }
         }
     }
 
 
     /**
-     *  Write index to file after indexing is done.
+     *  Write index to file after indexing is done. If runs have been written
+     *  during indexing, the rest of the terms becomes the last run and all
+     *  runs are merged; otherwise the terms are written directly.
      */
     public void cleanup() {
-        System.err.println( index.keySet().size() + " unique words" );
-        System.err.print( "Writing index to disk..." );
-        writeIndex();
+        postingsCache.clear();
+        if (runs.isEmpty()) {
+            System.err.println( index.keySet().size() + " unique words" );
+            System.err.print( "Writing index to disk..." );
+            writeIndex();
+        } else {
+            try {
+                if (!index.isEmpty()) {
+                    flushRun();
+                }
+                System.err.print( "Merging " + runs.size() + " runs..." );
+                mergeRuns();
+            } catch ( IOException e ) {
+                e.printStackTrace();
+            }
+        }
         System.err.println( "done!" );
     }
+
+
+    /**
+     *  Rebuilds the dictionary of an existing index with a new load factor:
+     *
+     *    java ir.PersistentHashedIndex -rehash 0.5
+     */
+    public static void main( String[] args ) throws IOException {
+        if ( args.length != 2 || !"-rehash".equals( args[0] )) {
+            System.err.println( "Usage: java ir.PersistentHashedIndex -rehash <load factor>" );
+            return;
+        }
+        double newLoadFactor = Double.parseDouble( args[1] );
+        if ( !(newLoadFactor > 0 && newLoadFactor < 1) ) {
+            System.err.println( "The load factor must be between 0 and 1." );
+            return;
+        }
+        PersistentHashedIndex index = new PersistentHashedIndex();
+        if ( !index.readable || index.tableSize == 0 ) {
+            System.err.println( "There is no index to rehash in " + INDEXDIR );
+            return;
+        }
+        index.rehash( newLoadFactor );
+    }
 }
@@ -0,0 +1,390 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ *
+ *   Serhan Cakmak, 2024
+ */
+
+package ir;
+
+
+/**
+ *   The Porter stemmer (M.F. Porter, "An algorithm for suffix stripping",
+ *   Program 14(3), 1980), which removes the inflectional and derivational
+ *   suffixes of English words, so that e.g. "running" and "runs" both
+ *   become "run".
+ *
+ *   The word is stemmed in a buffer that is reused for the next word, so a
+ *   PorterStemmer must only be used by one thread at a time.
+ */
+public class PorterStemmer {
+
+    /** The word being stemmed is b[0..k]. */
+    private char[] b = new char[64];
+    private int k;
+
+    /** The end of the stem when a suffix has been matched by ends(). */
+    private int j;
+
+    /** The view of the last stem returned by stem(). */
+    private final Tokenizer.Slice stem = new Tokenizer.Slice();
+
+
+    /**
+     *  Stems <code>word</code>. Only words of lowercase letters a-z are
+     *  stemmed, and words of at most two letters are returned as they are,
+     *  like other words (numbers, e-mail addresses, etc.).
+     *
+     *  @return the word itself if it has no suffix to remove, or otherwise
+     *          a view of the stem that is only valid until the next call.
+     */
+    public CharSequence stem( CharSequence word ) {
+        int length = word.length();
+        if ( length <= 2 ) {
+            return word;
+        }
+        if ( length > b.length ) {
+            b = new char[Math.max( length, 2*b.length )];
+        }
+        for ( int i = 0; i < length; i++ ) {
+            char c = word.charAt( i );
+            if ( c < 'a' || c > 'z' ) {
+                return word;
+            }
+            b[i] = c;
+        }
+        k = length-1;
+        step1ab();
+        step1c();
+        step2();
+        step3();
+        step4();
+        step5();
+        if ( k == length-1 && unchanged( word )) {
+            return word;
+        }
+        stem.set( b, 0, k+1 );
+        return stem;
+    }
+
+
+    /** Returns true if b[0..k] still is <code>word</code> (a y may have become an i). */
+    private boolean unchanged( CharSequence word ) {
+        for ( int i = k; i >= 0; i-- ) {
+            if ( b[i] != word.charAt( i )) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /** Stems <code>word</code>, like stem(CharSequence). */
+    public String stem( String word ) {
+        return stem( (CharSequence)word ).toString();
+    }
+
+
+    /** Returns true if b[i] is a consonant. */
+    private boolean cons( int i ) {
+        switch ( b[i] ) {
+        case 'a': case 'e': case 'i': case 'o': case 'u':
+            return false;
+        case 'y':
+            return i == 0 || !cons( i-1 );
+        default:
+            return true;
+        }
+    }
+
+
+    /**
+     *  Returns the number m of vowel-consonant sequences in b[0..j], where
+     *  the stem is of the form [C](VC)^m[V].
+     */
+    private int m() {
+        int n = 0;
+        int i = 0;
+        while ( true ) {
+            if ( i > j ) {
+                return n;
+            }
+            if ( !cons( i )) {
+                break;
+            }
+            i++;
+        }
+        i++;
+        while ( true ) {
+            while ( true ) {
+                if ( i > j ) {
+                    return n;
+                }
+                if ( cons( i )) {
+                    break;
+                }
+                i++;
+            }
+            i++;
+            n++;
+            while ( true ) {
+                if ( i > j ) {
+                    return n;
+                }
+                if ( !cons( i )) {
+                    break;
+                }
+                i++;
+            }
+            i++;
+        }
+    }
+
+
+    /** Returns true if b[0..j] contains a vowel. */
+    private boolean vowelInStem() {
+        for ( int i = 0; i <= j; i++ ) {
+            if ( !cons( i )) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    /** Returns true if b[i-1..i] is a double consonant. */
+    private boolean doubleConsonant( int i ) {
+        return i >= 1 && b[i] == b[i-1] && cons( i );
+    }
+
+
+    /**
+     *  Returns true if b[i-2..i] is consonant-vowel-consonant and the last
+     *  consonant is not w, x or y, as in "hop" (but not in "snow" or "box").
+     */
+    private boolean cvc( int i ) {
+        if ( i < 2 || !cons( i ) || cons( i-1 ) || !cons( i-2 )) {
+            return false;
+        }
+        char c = b[i];
+        return c != 'w' && c != 'x' && c != 'y';
+    }
+
+
+    /** Returns true if b[0..k] ends with s, and then sets j to the end of the stem before it. */
+    private boolean ends( String s ) {
+        int length = s.length();
+        int o = k-length+1;
+        if ( o < 0 ) {
+            return false;
+        }
+        for ( int i = 0; i < length; i++ ) {
+            if ( b[o+i] != s.charAt( i )) {
+                return false;
+            }
+        }
+        j = k-length;
+        return true;
+    }
+
+
+    /** Replaces b[j+1..k] with s. */
+    private void setTo( String s ) {
+        int length = s.length();
+        for ( int i = 0; i < length; i++ ) {
+            b[j+1+i] = s.charAt( i );
+        }
+        k = j+length;
+    }
+
+
+    /** Replaces the suffix with s if m() > 0. */
+    private void replace( String s ) {
+        if ( m() > 0 ) {
+            setTo( s );
+        }
+    }
+
+
+    /** Removes plurals and -ed or -ing: caresses -> caress, ponies -> poni, meetings -> meet. */
+    private void step1ab() {
+        if ( b[k] == 's' ) {
+            if ( ends( "sses" )) {
+                k -= 2;
+            } else if ( ends( "ies" )) {
+                setTo( "i" );
+            } else if ( b[k-1] != 's' ) {
+                k--;
+            }
+        }
+        if ( ends( "eed" )) {
+            if ( m() > 0 ) {
+                k--;
+            }
+        } else if (( ends( "ed" ) || ends( "ing" )) && vowelInStem() ) {
+            k = j;
+            if ( ends( "at" )) {
+                setTo( "ate" );
+            } else if ( ends( "bl" )) {
+                setTo( "ble" );
+            } else if ( ends( "iz" )) {
+                setTo( "ize" );
+            } else if ( doubleConsonant( k )) {
+                k--;
+                char c = b[k];
+                if ( c == 'l' || c == 's' || c == 'z' ) {
+                    k++;
+                }
+            } else {
+                j = k;
+                if ( m() == 1 && cvc( k )) {
+                    setTo( "e" );
+                }
+            }
+        }
+    }
+
+
+    /** Turns a terminal y into i when there is another vowel in the stem. */
+    private void step1c() {
+        if ( ends( "y" ) && vowelInStem() ) {
+            b[k] = 'i';
+        }
+    }
+
+
+    /** Maps double suffixes to single ones: -ization -> -ize, -ational -> -ate, etc. */
+    private void step2() {
+        if ( k == 0 ) {
+            return;
+        }
+        switch ( b[k-1] ) {
+        case 'a':
+            if ( ends( "ational" )) { replace( "ate" ); break; }
+            if ( ends( "tional" )) { replace( "tion" ); break; }
+            break;
+        case 'c':
+            if ( ends( "enci" )) { replace( "ence" ); break; }
+            if ( ends( "anci" )) { replace( "ance" ); break; }
+            break;
+        case 'e':
+            if ( ends( "izer" )) { replace( "ize" ); break; }
+            break;
+        case 'l':
+            if ( ends( "bli" )) { replace( "ble" ); break; }
+            if ( ends( "alli" )) { replace( "al" ); break; }
+            if ( ends( "entli" )) { replace( "ent" ); break; }
+            if ( ends( "eli" )) { replace( "e" ); break; }
+            if ( ends( "ousli" )) { replace( "ous" ); break; }
+            break;
+        case 'o':
+            if ( ends( "ization" )) { replace( "ize" ); break; }
+            if ( ends( "ation" )) { replace( "ate" ); break; }
+            if ( ends( "ator" )) { replace( "ate" ); break; }
+            break;
+        case 's':
+            if ( ends( "alism" )) { replace( "al" ); break; }
+            if ( ends( "iveness" )) { replace( "ive" ); break; }
+            if ( ends( "fulness" )) { replace( "ful" ); break; }
+            if ( ends( "ousness" )) { replace( "ous" ); break; }
+            break;
+        case 't':
+            if ( ends( "aliti" )) { replace( "al" ); break; }
+            if ( ends( "iviti" )) { replace( "ive" ); break; }
+            if ( ends( "biliti" )) { replace( "ble" ); break; }
+            break;
+        case 'g':
+            if ( ends( "logi" )) { replace( "log" ); break; }
+            break;
+        }
+    }
+
+
+    /** Handles -ic-, -full, -ness etc. */
+    private void step3() {
+        switch ( b[k] ) {
+        case 'e':
+            if ( ends( "icate" )) { replace( "ic" ); break; }
+            if ( ends( "ative" )) { replace( "" ); break; }
+            if ( ends( "alize" )) { replace( "al" ); break; }
+            break;
+        case 'i':
+            if ( ends( "iciti" )) { replace( "ic" ); break; }
+            break;
+        case 'l':
+            if ( ends( "ical" )) { replace( "ic" ); break; }
+            if ( ends( "ful" )) { replace( "" ); break; }
+            break;
+        case 's':
+            if ( ends( "ness" )) { replace( "" ); break; }
+            break;
+        }
+    }
+
+
+    /** Removes -ant, -ence etc. when the stem has m() > 1. */
+    private void step4() {
+        if ( k == 0 ) {
+            return;
+        }
+        boolean found;
+        switch ( b[k-1] ) {
+        case 'a':
+            found = ends( "al" );
+            break;
+        case 'c':
+            found = ends( "ance" ) || ends( "ence" );
+            break;
+        case 'e':
+            found = ends( "er" );
+            break;
+        case 'i':
+            found = ends( "ic" );
+            break;
+        case 'l':
+            found = ends( "able" ) || ends( "ible" );
+            break;
+        case 'n':
+            found = ends( "ant" ) || ends( "ement" ) || ends( "ment" ) || ends( "ent" );
+            break;
+        case 'o':
+            found = ( ends( "ion" ) && j >= 0 && ( b[j] == 's' || b[j] == 't' )) || ends( "ou" );
+            break;
+        case 's':
+            found = ends( "ism" );
+            break;
+        case 't':
+            found = ends( "ate" ) || ends( "iti" );
+            break;
+        case 'u':
+            found = ends( "ous" );
+            break;
+        case 'v':
+            found = ends( "ive" );
+            break;
+        case 'z':
+            found = ends( "ize" );
+            break;
+        default:
+            found = false;
+        }
+        if ( found && m() > 1 ) {
+            k = j;
+        }
+    }
+
+
+    /** Removes a final -e when m() > 1, and turns -ll into -l when m() > 1. */
+    private void step5() {
+        j = k;
+        if ( b[k] == 'e' ) {
+            int a = m();
+            if ( a > 1 || a == 1 && !cvc( k-1 )) {
+                k--;
+            }
+        }
+        if ( b[k] == 'l' && doubleConsonant( k ) && m() > 1 ) {
+            k--;
+        }
+    }
+}
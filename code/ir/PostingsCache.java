@@ -0,0 +1,174 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ *
+ *   Serhan Cakmak, 2024
+ */
+
+package ir;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ *   A cache of decoded postings lists, bounded by their estimated size
+ *   in bytes, with segmented LRU eviction.
+ *
+ *   A list that is put in the cache starts in the probationary segment. If
+ *   it is asked for again while it is still there, it moves to the protected
+ *   segment, which may use PROTECTED_SHARE of the capacity. When the
+ *   protected segment is full its least recently used list goes back to
+ *   probation, and when the cache is full the least recently used list in
+ *   probation is evicted. Terms that are only looked up once, however long
+ *   their lists are, can thus only push out other such terms, while the
+ *   lists of frequent query terms (and heavy stop-word lists) stay decoded.
+ *
+ *   All methods are synchronized, so the cache can be shared by searching
+ *   threads.
+ */
+public class PostingsCache {
+
+    /** Default capacity in bytes. */
+    public static final long DEFAULT_CAPACITY = 64L * 1024 * 1024;
+
+    /** The share of the capacity that the protected segment may use. */
+    static final double PROTECTED_SHARE = 0.8;
+
+    /** The two segments, in order from least to most recently used. */
+    private final LinkedHashMap<String,PostingsList> probation = new LinkedHashMap<String,PostingsList>( 16, 0.75f, true );
+    private final LinkedHashMap<String,PostingsList> protectedSegment = new LinkedHashMap<String,PostingsList>( 16, 0.75f, true );
+
+    private final long capacity;
+    private long probationBytes = 0;
+    private long protectedBytes = 0;
+
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+
+    public PostingsCache( long capacity ) {
+        this.capacity = capacity;
+    }
+
+
+    /**
+     *  Returns the cached postings of the term, or null if they are not
+     *  in the cache.
+     */
+    public synchronized PostingsList get( String term ) {
+        PostingsList postings = protectedSegment.get( term );
+        if ( postings != null ) {
+            hits++;
+            return postings;
+        }
+        postings = probation.remove( term );
+        if ( postings == null ) {
+            misses++;
+            return null;
+        }
+        hits++;
+        // the second use of the list promotes it
+        long size = size( term, postings );
+        probationBytes -= size;
+        protectedSegment.put( term, postings );
+        protectedBytes += size;
+        Iterator<Map.Entry<String,PostingsList>> it = protectedSegment.entrySet().iterator();
+        while ( protectedBytes > PROTECTED_SHARE * capacity && it.hasNext() ) {
+            Map.Entry<String,PostingsList> eldest = it.next();
+            if ( eldest.getKey().equals( term )) {
+                break;
+            }
+            it.remove();
+            long eldestSize = size( eldest.getKey(), eldest.getValue() );
+            protectedBytes -= eldestSize;
+            probation.put( eldest.getKey(), eldest.getValue() );
+            probationBytes += eldestSize;
+        }
+        evict();
+        return postings;
+    }
+
+
+    /**
+     *  Puts the postings of a term into the probationary segment.
+     *  Lists that are larger than the whole cache are not cached.
+     */
+    public synchronized void put( String term, PostingsList postings ) {
+        long size = size( term, postings );
+        if ( size > capacity || protectedSegment.containsKey( term ) || probation.containsKey( term )) {
+            return;
+        }
+        probation.put( term, postings );
+        probationBytes += size;
+        evict();
+    }
+
+
+    /** Evicts from probation (and then from protected) until the cache fits. */
+    private void evict() {
+        Iterator<Map.Entry<String,PostingsList>> it = probation.entrySet().iterator();
+        while ( probationBytes + protectedBytes > capacity && it.hasNext() ) {
+            Map.Entry<String,PostingsList> eldest = it.next();
+            probationBytes -= size( eldest.getKey(), eldest.getValue() );
+            it.remove();
+            evictions++;
+        }
+        it = protectedSegment.entrySet().iterator();
+        while ( probationBytes + protectedBytes > capacity && it.hasNext() ) {
+            Map.Entry<String,PostingsList> eldest = it.next();
+            protectedBytes -= size( eldest.getKey(), eldest.getValue() );
+            it.remove();
+            evictions++;
+        }
+    }
+
+
+    private static long size( String term, PostingsList postings ) {
+        return postings.memorySize() + 2 * term.length() + 64;
+    }
+
+
+    /** Removes the list of one term, e.g. when the term has been changed. */
+    public synchronized void remove( String term ) {
+        PostingsList postings = probation.remove( term );
+        if ( postings != null ) {
+            probationBytes -= size( term, postings );
+        }
+        postings = protectedSegment.remove( term );
+        if ( postings != null ) {
+            protectedBytes -= size( term, postings );
+        }
+    }
+
+
+    /** Removes all lists, e.g. when the index on disk has changed. */
+    public synchronized void clear() {
+        probation.clear();
+        protectedSegment.clear();
+        probationBytes = 0;
+        protectedBytes = 0;
+    }
+
+
+    public synchronized long hits() {
+        return hits;
+    }
+
+    public synchronized long misses() {
+        return misses;
+    }
+
+    public synchronized long bytes() {
+        return probationBytes + protectedBytes;
+    }
+
+
+    @Override
+    public synchronized String toString() {
+        return String.format( "PostingsCache{probation=%d lists/%d bytes, protected=%d lists/%d bytes, hits=%d, misses=%d, evictions=%d}",
+                              probation.size(), probationBytes, protectedSegment.size(), protectedBytes, hits, misses, evictions );
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ *
+ *   Serhan Cakmak, 2024
+ */
+
+package ir;
+
+
+/**
+ *   Binary encoding of postings lists.
+ *
+ *   A record is a VByte-encoded length prefix followed by the payload:
+ *
+ *     numDocs ( docGap tf offsetGap_1 ... offsetGap_tf )*
+ *
+ *   where every number is a VByte (7 bits per byte, high bit set on all
+ *   bytes except the last). DocIDs are stored as gaps to the previous docID
+ *   in the list (the first one as is), and the offsets of a document as gaps
+ *   to the previous offset within the same document.
+ */
+public class PostingsCodec {
+
+    /** A VByte-encoded int never takes more than this many bytes. */
+    public static final int MAX_VINT_LENGTH = 5;
+
+
+    /**
+     *  Writes <code>v</code> (which must be non-negative) as a VByte
+     *  into <code>buf</code> at <code>pos</code>.
+     *
+     *  @return The position right after the written bytes.
+     */
+    static int writeVInt( byte[] buf, int pos, int v ) {
+        while ( (v & ~0x7F) != 0 ) {
+            buf[pos++] = (byte)((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        buf[pos++] = (byte)v;
+        return pos;
+    }
+
+
+    /** Number of bytes <code>writeVInt</code> needs for <code>v</code>. */
+    static int vIntLength( int v ) {
+        int n = 1;
+        while ( (v & ~0x7F) != 0 ) {
+            v >>>= 7;
+            n++;
+        }
+        return n;
+    }
+
+
+    /**
+     *  Reads a VByte from <code>buf</code> starting at <code>pos[0]</code>,
+     *  and advances <code>pos[0]</code> past it.
+     */
+    static int readVInt( byte[] buf, int[] pos ) {
+        int p = pos[0];
+        byte b = buf[p++];
+        int v = b & 0x7F;
+        for ( int shift = 7; b < 0; shift += 7 ) {
+            b = buf[p++];
+            v |= (b & 0x7F) << shift;
+        }
+        pos[0] = p;
+        return v;
+    }
+
+
+    /**
+     *  Encodes the postings list as a length-prefixed record. The docIDs of
+     *  the list must be in increasing order, as are the offsets of each entry.
+     */
+    public static byte[] encode( PostingsList list ) {
+        int payloadLength = vIntLength( list.size() );
+        int lastDocID = 0;
+        for ( int i = 0; i < list.size(); i++ ) {
+            int docID = list.docID( i );
+            int tf = list.offsetCount( i );
+            payloadLength += vIntLength( docID - lastDocID ) + vIntLength( tf );
+            int lastOffset = 0;
+            for ( int j = 0; j < tf; j++ ) {
+                int offset = list.offset( i, j );
+                payloadLength += vIntLength( offset - lastOffset );
+                lastOffset = offset;
+            }
+            lastDocID = docID;
+        }
+
+        byte[] record = new byte[vIntLength( payloadLength ) + payloadLength];
+        int pos = writeVInt( record, 0, payloadLength );
+        pos = writeVInt( record, pos, list.size() );
+        lastDocID = 0;
+        for ( int i = 0; i < list.size(); i++ ) {
+            int docID = list.docID( i );
+            int tf = list.offsetCount( i );
+            pos = writeVInt( record, pos, docID - lastDocID );
+            pos = writeVInt( record, pos, tf );
+            int lastOffset = 0;
+            for ( int j = 0; j < tf; j++ ) {
+                int offset = list.offset( i, j );
+                pos = writeVInt( record, pos, offset - lastOffset );
+                lastOffset = offset;
+            }
+            lastDocID = docID;
+        }
+        return record;
+    }
+
+
+    /**
+     *  Decodes a record produced by <code>encode</code>, starting at
+     *  <code>start</code> (where the length prefix begins).
+     */
+    public static PostingsList decode( byte[] record, int start ) {
+        PostingsList list = new PostingsList();
+        Reader reader = new Reader( record, start );
+        while ( reader.next() ) {
+            list.append( reader.docID(), reader.offsets(), reader.tf() );
+        }
+        return list;
+    }
+
+
+    /**
+     *   Decodes a record one posting at a time, without building a
+     *   PostingsList. The offsets array is reused between postings.
+     */
+    public static class Reader {
+
+        private final byte[] record;
+        private final int[] pos;
+        private int remaining;
+        private int docID = 0;
+        private int tf = 0;
+        private int[] offsets = new int[16];
+
+        /** A reader of the record starting (with its length prefix) at <code>start</code>. */
+        public Reader( byte[] record, int start ) {
+            this.record = record;
+            pos = new int[] { start };
+            readVInt( record, pos );
+            remaining = readVInt( record, pos );
+        }
+
+        /** The number of postings in the record. */
+        public int size() {
+            return remaining;
+        }
+
+        /** Moves to the next posting, returns false if there are no more. */
+        public boolean next() {
+            if ( remaining == 0 ) {
+                return false;
+            }
+            remaining--;
+            docID += readVInt( record, pos );
+            tf = readVInt( record, pos );
+            if ( tf > offsets.length ) {
+                offsets = new int[Math.max( tf, 2*offsets.length )];
+            }
+            int offset = 0;
+            for ( int j = 0; j < tf; j++ ) {
+                offset += readVInt( record, pos );
+                offsets[j] = offset;
+            }
+            return true;
+        }
+
+        /** The docID of the current posting. */
+        public int docID() {
+            return docID;
+        }
+
+        /** The number of offsets of the current posting. */
+        public int tf() {
+            return tf;
+        }
+
+        /** The offsets of the current posting, in the first <code>tf()</code> elements. */
+        public int[] offsets() {
+            return offsets;
+        }
+    }
+}
@@ -17,9 +17,8 @@ public class PostingsEntry implements Comparable<PostingsEntry>, Serializable {
 
     public int docID;
     public double score = 0;
-    public ArrayList<Integer> offsets = new ArrayList<Integer>();
-    // treeset? Actually I wouldn't use arraylist for this task but since the given documents and offsets are
-    // created in a sequential manner we happen to get sorted list.
+    public int[] offsets = new int[0];
+    // The offsets are in increasing order, since the documents are read in a sequential manner.
 
 
     /**
@@ -38,8 +37,8 @@ public class PostingsEntry implements Comparable<PostingsEntry>, Serializable {
     @Override
     public String toString() {
         String result = "";
-        for (int i = 0; i < offsets.size(); i++) {
-            result += " " + offsets.get(i) ;
+        for (int i = 0; i < offsets.length; i++) {
+            result += " " + offsets[i] ;
         }
         return docID + " " + score + result ;
     }
@@ -7,81 +7,317 @@
 
 package ir;
 
-import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
 
 public class PostingsList {
-    
-    /** The postings list */
-    private ArrayList<PostingsEntry> list = new ArrayList<PostingsEntry>();
-    public HashMap<String, Integer> docIDMap = new HashMap<String, Integer>();
-    // hashset?
+
+    /**
+     * The postings are kept in primitive arrays instead of one PostingsEntry object per posting. Entry i has
+     * the docID docIDs[i], and its offsets are offsets[offsetEnd[i-1] .. offsetEnd[i]-1] (starting from 0 for
+     * the first entry) in the single offsets pool. The scores are only allocated for lists built by add_scored or append_scored.
+     * */
+    private int size = 0;
+    private int[] docIDs = new int[1];
+    private int[] offsetEnd = new int[1];
+    private int[] offsets = new int[1];
+    private int numOffsets = 0;
+    private double[] scores;
+
+    /**
+     * Offsets that were added to an entry that was not the last one any more. They can't go into the pool
+     * without moving everything after them, so they are kept per entry: lateOffsets[i][0] is the number of
+     * late offsets of entry i, followed by the offsets. Null as long as that never happens (when indexing,
+     * it never does).
+     * */
+    private int[][] lateOffsets;
+
+    /**
+     * The docIDs usually arrive in increasing order, then the index of a docID can be found by binary search.
+     * Only when they don't, a hashmap from docID to index is built.
+     * */
+    private boolean sorted = true;
+    private HashMap<Integer, Integer> docIDMap;
 
 
 
     /** Number of postings in this list. */
     public int size() {
-    return list.size();
+    return size;
     }
 
-    /** Returns the ith posting. */
-    public PostingsEntry get( int i ) { return list.get( i );}
+    /** Returns the ith posting. The entry is a copy, changing it does not change the list. */
+    public PostingsEntry get( int i ) {
+        PostingsEntry postingsEntry = new PostingsEntry();
+        postingsEntry.docID = docIDs[i];
+        postingsEntry.score = score(i);
+        postingsEntry.offsets = new int[offsetCount(i)];
+        for (int k = 0; k < postingsEntry.offsets.length; k++) {
+            postingsEntry.offsets[k] = offset(i, k);
+        }
+        return postingsEntry;
+    }
+
+    /** The docID of the ith posting. */
+    public int docID(int i) {
+        return docIDs[i];
+    }
+
+    /** The score of the ith posting. */
+    public double score(int i) {
+        return scores == null ? 0 : scores[i];
+    }
+
+    /** The number of offsets of the ith posting, i.e. the term frequency. */
+    public int offsetCount(int i) {
+        int count = offsetEnd[i] - offsetStart(i);
+        if (lateOffsets != null && lateOffsets[i] != null) {
+            count += lateOffsets[i][0];
+        }
+        return count;
+    }
+
+    /** The kth offset of the ith posting. */
+    public int offset(int i, int k) {
+        int start = offsetStart(i);
+        if (k < offsetEnd[i] - start) {
+            return offsets[start + k];
+        }
+        return lateOffsets[i][1 + k - (offsetEnd[i] - start)];
+    }
+
+    /**
+     * Returns the first index j >= i whose docID is at least docID, or size() if there is none. The docIDs are
+     * in an array, so every entry can serve as a skip pointer: this gallops ahead in steps 1, 2, 4, ... until
+     * it passes docID, and then does a binary search in the last step. Skipping over k entries thus takes
+     * O(log k) comparisons instead of k. Lists whose docIDs are not in increasing order are scanned linearly.
+     * */
+    public int advance(int i, int docID) {
+        if (i >= size || docIDs[i] >= docID) {
+            return i;
+        }
+        if (!sorted) {
+            while (i < size && docIDs[i] < docID) {
+                i++;
+            }
+            return i;
+        }
+        // docIDs[i] < docID, find a step where that isn't true any more
+        int step = 1;
+        while (i + step < size && docIDs[i + step] < docID) {
+            i += step;
+            step *= 2;
+        }
+        int hi = Math.min(i + step, size);
+        int index = Arrays.binarySearch(docIDs, i + 1, hi, docID);
+        return index >= 0 ? index : -index - 1;
+    }
+
+    private int offsetStart(int i) {
+        return i == 0 ? 0 : offsetEnd[i - 1];
+    }
 
 
     public void add(int docID, int offset) {
         /**
-         * I used hashmap to keep track of the index of the docID in the list. Otherwise, I would have to iterate
-         * through the list to find the index of the docID.
+         * The common case is that the docID is the last one in the list (more offsets in the same document) or
+         * a new, larger one. Anything else needs a lookup.
          * */
-        if (docIDMap.containsKey(docID+"")) {
-            // already in the list
-            int index = docIDMap.get(docID+"");
-            list.get(index).offsets.add(offset);
-            return;
+        int index = indexOf(docID);
+        if (index < 0) {
+            // not found
+            index = newEntry(docID);
         }
-        // not found
-        PostingsEntry postingsEntry = new PostingsEntry();
-        postingsEntry.docID = docID;
-        postingsEntry.offsets.add(offset);
-        list.add(postingsEntry);
-        docIDMap.put(docID+"", list.size()-1);
+        addOffset(index, offset);
+    }
 
+    /**
+     * Appends a whole entry at the end of the list. Used when decoding lists from disk, where the docIDs
+     * arrive in increasing order and every docID only once.
+     * */
+    public void append(int docID, int[] offsets, int count) {
+        newEntry(docID);
+        ensureOffsetCapacity(count);
+        System.arraycopy(offsets, 0, this.offsets, numOffsets, count);
+        numOffsets += count;
+        offsetEnd[size - 1] = numOffsets;
     }
 
     public void add_scored(int docID, double score, int offset) {
-        /**
-         * I used hashmap to keep track of the index of the docID in the list. Otherwise, I would have to iterate
-         * through the list to find the index of the docID.
-         * */
-        if (docIDMap.containsKey(docID+"")) {
+        if (scores == null) {
+            scores = new double[docIDs.length];
+        }
+        int index = indexOf(docID);
+        if (index >= 0) {
             // already in the list
-            int index = docIDMap.get(docID+"");
-            list.get(index).offsets.add(offset);
+            addOffset(index, offset);
             /**
              * Just add the score cumulatively. It is like dot product since I just want to calculate the dot
              * product with the query and don't want to increase the score in some query like "zombie zombie zombie".
              * */
-            list.get(index).score = list.get(index).score + score;
+            scores[index] += score;
             return;
         }
         // not found
-        PostingsEntry postingsEntry = new PostingsEntry();
-        postingsEntry.docID = docID;
-        postingsEntry.offsets.add(offset);
-        postingsEntry.score = score;
-        list.add(postingsEntry);
-        docIDMap.put(docID+"", list.size()-1);
+        index = newEntry(docID);
+        addOffset(index, offset);
+        scores[index] = score;
+    }
+
+    /**
+     * Appends an entry with a score and no offsets, without looking for the docID in the list. Used for
+     * results, where every docID comes only once.
+     * */
+    public void append_scored(int docID, double score) {
+        if (scores == null) {
+            scores = new double[docIDs.length];
+        }
+        int index = newEntry(docID);
+        scores[index] = score;
     }
+
+    /**
+     * Sorts the postings by decreasing score. The sort is stable, so postings with the same score keep the
+     * order in which they were added.
+     * */
     public void sort_list() {
-        Collections.sort(list);
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        final double[] s = scores == null ? new double[size] : scores;
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return Double.compare(s[b], s[a]);
+            }
+        });
+
+        PostingsList sortedList = new PostingsList();
+        for (int i = 0; i < size; i++) {
+            int j = order[i];
+            sortedList.newEntry(docIDs[j]);
+            int count = offsetCount(j);
+            for (int k = 0; k < count; k++) {
+                sortedList.addOffset(i, offset(j, k));
+            }
+        }
+        size = sortedList.size;
+        docIDs = sortedList.docIDs;
+        offsetEnd = sortedList.offsetEnd;
+        offsets = sortedList.offsets;
+        numOffsets = sortedList.numOffsets;
+        lateOffsets = null;
+        sorted = sortedList.sorted;
+        docIDMap = null;
+        if (scores != null) {
+            double[] sortedScores = new double[docIDs.length];
+            for (int i = 0; i < size; i++) {
+                sortedScores[i] = scores[order[i]];
+            }
+            scores = sortedScores;
+        }
+    }
+
+
+    /** Returns the index of the entry with this docID, or -1 if there is none. */
+    private int indexOf(int docID) {
+        if (size == 0) {
+            return -1;
+        }
+        if (docIDs[size - 1] == docID) {
+            return size - 1;
+        }
+        if (sorted) {
+            if (docID > docIDs[size - 1]) {
+                return -1;
+            }
+            int index = Arrays.binarySearch(docIDs, 0, size, docID);
+            return index >= 0 ? index : -1;
+        }
+        if (docIDMap == null) {
+            docIDMap = new HashMap<Integer, Integer>();
+            for (int i = 0; i < size; i++) {
+                docIDMap.put(docIDs[i], i);
+            }
+        }
+        Integer index = docIDMap.get(docID);
+        return index != null ? index : -1;
+    }
+
+    /** Adds an entry without offsets at the end of the list, and returns its index. */
+    private int newEntry(int docID) {
+        if (size == docIDs.length) {
+            int capacity = 2 * size;
+            docIDs = Arrays.copyOf(docIDs, capacity);
+            offsetEnd = Arrays.copyOf(offsetEnd, capacity);
+            if (scores != null) {
+                scores = Arrays.copyOf(scores, capacity);
+            }
+            if (lateOffsets != null) {
+                lateOffsets = Arrays.copyOf(lateOffsets, capacity);
+            }
+        }
+        if (size > 0 && docID < docIDs[size - 1]) {
+            sorted = false;
+        }
+        docIDs[size] = docID;
+        offsetEnd[size] = numOffsets;
+        if (docIDMap != null) {
+            docIDMap.put(docID, size);
+        }
+        return size++;
+    }
+
+    private void addOffset(int index, int offset) {
+        if (index == size - 1) {
+            ensureOffsetCapacity(1);
+            offsets[numOffsets++] = offset;
+            offsetEnd[index] = numOffsets;
+            return;
+        }
+        if (lateOffsets == null) {
+            lateOffsets = new int[docIDs.length][];
+        }
+        int[] late = lateOffsets[index];
+        if (late == null) {
+            late = new int[2];
+        } else if (late[0] + 1 == late.length) {
+            late = Arrays.copyOf(late, 2 * late.length);
+        }
+        late[++late[0]] = offset;
+        lateOffsets[index] = late;
+    }
+
+    private void ensureOffsetCapacity(int extra) {
+        if (numOffsets + extra > offsets.length) {
+            offsets = Arrays.copyOf(offsets, Math.max(numOffsets + extra, 2 * offsets.length));
+        }
+    }
+
+    /** An estimate of the number of bytes this list takes on the heap. */
+    public long memorySize() {
+        long bytes = 64 + 16L * 4 + 4L * (docIDs.length + offsetEnd.length + offsets.length);
+        if (scores != null) {
+            bytes += 8L * scores.length;
+        }
+        if (lateOffsets != null) {
+            bytes += 8L * lateOffsets.length;
+            for (int[] late : lateOffsets) {
+                bytes += late == null ? 0 : 16 + 4L * late.length;
+            }
+        }
+        if (docIDMap != null) {
+            bytes += 64L * docIDMap.size();
+        }
+        return bytes;
     }
 
     @Override
     public String toString() {
         String result = " ";
-        for (int i = 0; i < list.size(); i++) {
-            result += list.get(i).toString() + "*";
+        for (int i = 0; i < size; i++) {
+            result += get(i).toString() + "*";
         }
         return result.length() + result + "-";
     }
@@ -49,6 +49,12 @@ public class Query {
      *  (only used in assignment 3).
      */
     double beta = 1 - alpha;
+
+    /** 
+     *  How the words of the query (and of the documents used for relevance
+     *  feedback) become terms. This must be the configuration of the index.
+     */
+    AnalyzerConfig analyzer = AnalyzerConfig.NONE;
     
     
     /**
@@ -67,6 +73,24 @@ public class Query {
             queryterm.add( new QueryTerm(tok.nextToken(), 1.0) );
         }    
     }
+
+
+    /**
+     *  Creates a new Query from a string of words, turning the words into
+     *  terms like the indexer does. Stop words and words of the wrong
+     *  length are left out of the query.
+     */
+    public Query( String queryString, AnalyzerConfig analyzer ) {
+        this.analyzer = analyzer;
+        Analyzer a = new Analyzer( analyzer );
+        StringTokenizer tok = new StringTokenizer( queryString );
+        while ( tok.hasMoreTokens() ) {
+            String term = a.analyze( tok.nextToken() );
+            if ( term != null ) {
+                queryterm.add( new QueryTerm(term, 1.0) );
+            }
+        }    
+    }
     
     
     /**
@@ -94,6 +118,7 @@ public class Query {
      */
     public Query copy() {
         Query queryCopy = new Query();
+        queryCopy.analyzer = analyzer;
         for ( QueryTerm t : queryterm ) {
             queryCopy.queryterm.add( new QueryTerm(t.term, t.weight) );
         }
@@ -144,9 +169,13 @@ public class Query {
         try {
             Reader reader = new InputStreamReader(new FileInputStream(fileName), StandardCharsets.UTF_8);
             Tokenizer tok = new Tokenizer(reader, true, false, true, "patterns.txt");
+            Analyzer a = new Analyzer(analyzer);
 
             while (tok.hasMoreTokens()) {
-                String token = tok.nextToken();
+                String token = a.analyze(tok.nextToken());
+                if (token == null) {
+                    continue;
+                }
                 if (word_count.containsKey(token)) {
                     word_count.put(token, word_count.get(token) + 1);
                 } else {
@@ -0,0 +1,136 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ *
+ *   Serhan Cakmak, 2024
+ */
+
+package ir;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ *   A cache of search results, with least-recently-used eviction.
+ *
+ *   The cache is bounded both by the number of results and by their
+ *   estimated size in bytes. A result is looked up by a key made of the
+ *   query terms and weights (in query order, since the order matters for
+ *   phrase queries and for the order of equal scores) and the query,
+ *   ranking and normalization types. The cache has to be cleared when the
+ *   index changes. All methods are synchronized, so one cache can be
+ *   shared by searching threads.
+ */
+public class QueryCache {
+
+    /** Default maximum number of cached results. */
+    public static final int DEFAULT_MAX_ENTRIES = 1000;
+
+    /** Default maximum estimated size of the cached results. */
+    public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+    /** The results, in order from least to most recently used. */
+    private final LinkedHashMap<String,PostingsList> results = new LinkedHashMap<String,PostingsList>( 16, 0.75f, true );
+
+    private final int maxEntries;
+    private final long maxBytes;
+
+    /** The estimated size of the cached results. */
+    private long bytes = 0;
+
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+
+    public QueryCache() {
+        this( DEFAULT_MAX_ENTRIES, DEFAULT_MAX_BYTES );
+    }
+
+    public QueryCache( int maxEntries, long maxBytes ) {
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+    }
+
+
+    /**
+     *  The cache key of a search.
+     */
+    public static String key( Query query, QueryType queryType, RankingType rankingType, NormalizationType normType, int k ) {
+        StringBuilder key = new StringBuilder();
+        key.append( queryType ).append( ' ' ).append( rankingType ).append( ' ' ).append( normType ).append( ' ' ).append( k );
+        for ( Query.QueryTerm queryTerm : query.queryterm ) {
+            key.append( ' ' ).append( queryTerm.term ).append( '^' ).append( queryTerm.weight );
+        }
+        return key.toString();
+    }
+
+
+    /**
+     *  Returns the cached result for the key, or null if there is none.
+     */
+    public synchronized PostingsList get( String key ) {
+        PostingsList result = results.get( key );
+        if ( result != null ) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return result;
+    }
+
+
+    /**
+     *  Caches a result, and evicts the least recently used results until
+     *  the cache is within its bounds again. Results that are larger than
+     *  the whole cache are not cached.
+     */
+    public synchronized void put( String key, PostingsList result ) {
+        if ( result == null || maxEntries <= 0 ) {
+            return;
+        }
+        long size = result.memorySize() + 2 * key.length();
+        if ( size > maxBytes ) {
+            return;
+        }
+        PostingsList old = results.put( key, result );
+        if ( old != null ) {
+            bytes -= old.memorySize() + 2 * key.length();
+        }
+        bytes += size;
+        Iterator<Map.Entry<String,PostingsList>> it = results.entrySet().iterator();
+        while ( (results.size() > maxEntries || bytes > maxBytes) && it.hasNext() ) {
+            Map.Entry<String,PostingsList> eldest = it.next();
+            bytes -= eldest.getValue().memorySize() + 2 * eldest.getKey().length();
+            it.remove();
+            evictions++;
+        }
+    }
+
+
+    /**
+     *  Removes all results, e.g. when the index has been rebuilt.
+     */
+    public synchronized void clear() {
+        results.clear();
+        bytes = 0;
+    }
+
+
+    public synchronized long hits() {
+        return hits;
+    }
+
+    public synchronized long misses() {
+        return misses;
+    }
+
+
+    @Override
+    public synchronized String toString() {
+        return String.format( "QueryCache{entries=%d, bytes=%d, hits=%d, misses=%d, evictions=%d}",
+                              results.size(), bytes, hits, misses, evictions );
+    }
+}
@@ -156,7 +156,7 @@ public class SearchGUI extends JFrame {
                 displayInfoText( " " );
                 // Turn the search string into a Query
                 String queryString = queryWindow.getText().toLowerCase().trim();
-                query = new Query( queryString );
+                query = new Query( queryString, engine.analyzer_config );
                 // Take relevance feedback from the user into account (assignment 3)
                 // Check which documents the user has marked as relevant.
                 if ( box != null ) {
@@ -167,14 +167,21 @@ public class SearchGUI extends JFrame {
                     }
                     query.relevanceFeedback( results, relevant, engine );
                 }
-                // Search and print results. Access to the index is synchronized since
-                // we don't want to search at the same time we're indexing new files
-                // (this might corrupt the index).
+                // Search and print results. The read lock of the index is held, since
+                // we don't want the indexer to change the index in the middle of a
+                // search (this might give inconsistent results), but other searches
+                // can run at the same time.
                 long startTime = System.currentTimeMillis();
-                synchronized ( engine.indexLock ) {
+                engine.indexLock.readLock().lock();
+                try {
                     results = engine.searcher.search( query, queryType, rankingType, normType );
+                } finally {
+                    engine.indexLock.readLock().unlock();
                 }
                 long elapsedTime = System.currentTimeMillis() - startTime;
+                if ( queryType == QueryType.INTERSECTION_QUERY ) {
+                    System.err.println( "Intersection plan: " + engine.searcher.getLastPlan() );
+                }
                 // Display the first few results + a button to see all results.
                 //
                 // We don't want to show all results directly since the displaying itself
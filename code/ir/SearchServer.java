@@ -0,0 +1,357 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ *
+ *   Serhan Cakmak, 2024
+ */
+
+package ir;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+
+/**
+ *   A headless HTTP interface to the search engine, started by Engine
+ *   with -server PORT instead of the GUI.
+ *
+ *   GET /search?q=zombie+attack&type=ranked&ranking=tf_idf&norm=euclidean&k=10
+ *
+ *   or a POST to /search with the same parameters as a JSON object, e.g.
+ *   {"q": "zombie attack", "type": "RANKED_QUERY", "k": 10}. The types can
+ *   be given by their full names or without the suffix (intersection,
+ *   phrase, ranked, number_of_words, ...). The answer is a JSON object with
+ *   the total number of documents found (at most k for ranked queries, which
+ *   are only ranked up to k), the first k of them with their names and
+ *   scores, and the search time. GET /stats returns the cache statistics.
+ *
+ *   Every request runs on its own virtual thread when the JVM has them
+ *   (Java 21), otherwise on a cached thread pool. Searches hold the read
+ *   lock of the index, so they run in parallel.
+ */
+public class SearchServer {
+
+    /** Number of results if the request doesn't give k. */
+    public static final int DEFAULT_K = 10;
+
+    private final Engine engine;
+    private final HttpServer server;
+
+
+    public SearchServer( Engine engine, int port ) throws IOException {
+        this.engine = engine;
+        server = HttpServer.create( new InetSocketAddress( port ), 0 );
+        server.createContext( "/search", new HttpHandler() {
+            public void handle( HttpExchange exchange ) throws IOException {
+                handleSearch( exchange );
+            }
+        });
+        server.createContext( "/stats", new HttpHandler() {
+            public void handle( HttpExchange exchange ) throws IOException {
+                handleStats( exchange );
+            }
+        });
+        server.setExecutor( newExecutor() );
+    }
+
+
+    /**
+     *  An executor that starts a virtual thread per task. Virtual threads
+     *  only exist from Java 21, so the method is looked up by reflection,
+     *  and a cached thread pool is used on older JVMs.
+     */
+    static ExecutorService newExecutor() {
+        try {
+            return (ExecutorService)Executors.class.getMethod( "newVirtualThreadPerTaskExecutor" ).invoke( null );
+        } catch ( ReflectiveOperationException | UnsupportedOperationException e ) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+
+    public void start() {
+        server.start();
+        System.err.println( "Search server listening on port " + server.getAddress().getPort() );
+    }
+
+
+    public void stop() {
+        server.stop( 0 );
+    }
+
+
+    private void handleSearch( HttpExchange exchange ) throws IOException {
+        HashMap<String,String> params;
+        try {
+            params = parseQueryString( exchange.getRequestURI().getRawQuery() );
+            if ( "POST".equals( exchange.getRequestMethod() )) {
+                String body = new String( exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8 );
+                params.putAll( parseJsonObject( body ));
+            }
+        } catch ( IllegalArgumentException e ) {
+            send( exchange, 400, "{\"error\": " + quote( e.getMessage() ) + "}" );
+            return;
+        }
+
+        String queryString = params.get( "q" ) != null ? params.get( "q" ) : params.get( "query" );
+        if ( queryString == null || queryString.trim().isEmpty() ) {
+            send( exchange, 400, "{\"error\": \"missing query (q)\"}" );
+            return;
+        }
+        QueryType queryType;
+        RankingType rankingType;
+        NormalizationType normType;
+        int k;
+        try {
+            queryType = parseEnum( QueryType.class, params.get( "type" ), QueryType.RANKED_QUERY, "_QUERY" );
+            rankingType = parseEnum( RankingType.class, params.get( "ranking" ), RankingType.TF_IDF, "" );
+            normType = parseEnum( NormalizationType.class, params.get( "norm" ), NormalizationType.NUMBER_OF_WORDS, "" );
+            k = params.get( "k" ) != null ? Integer.parseInt( params.get( "k" )) : DEFAULT_K;
+            if ( k < 1 ) {
+                throw new IllegalArgumentException( "k must be at least 1: " + k );
+            }
+        } catch ( IllegalArgumentException e ) {
+            send( exchange, 400, "{\"error\": " + quote( e.getMessage() ) + "}" );
+            return;
+        }
+
+        queryString = queryString.toLowerCase().trim();
+        Query query = new Query( queryString, engine.analyzer_config );
+        long startTime = System.nanoTime();
+        PostingsList results;
+        engine.indexLock.readLock().lock();
+        try {
+            results = engine.searcher.search( query, queryType, rankingType, normType, k );
+        } catch ( RuntimeException e ) {
+            System.err.println( "Search failed for query \"" + queryString + "\": " + e );
+            send( exchange, 500, "{\"error\": \"internal error\"}" );
+            return;
+        } finally {
+            engine.indexLock.readLock().unlock();
+        }
+        double elapsedMs = (System.nanoTime() - startTime) / 1e6;
+
+        StringBuilder json = new StringBuilder();
+        json.append( "{\"query\": " ).append( quote( queryString ));
+        json.append( ", \"type\": " ).append( quote( queryType.toString() ));
+        json.append( ", \"ranking\": " ).append( quote( rankingType.toString() ));
+        json.append( ", \"norm\": " ).append( quote( normType.toString() ));
+        json.append( ", \"k\": " ).append( k );
+        json.append( ", \"total\": " ).append( results == null ? 0 : results.size() );
+        json.append( ", \"timeMs\": " ).append( String.format( Locale.ROOT, "%.3f", elapsedMs ));
+        json.append( ", \"results\": [" );
+        for ( int i = 0; results != null && i < results.size() && i < k; i++ ) {
+            int docID = results.docID( i );
+            if ( i > 0 ) {
+                json.append( ", " );
+            }
+            json.append( "{\"docID\": " ).append( docID );
+            json.append( ", \"docName\": " ).append( quote( Index.docNames.get( docID )));
+            json.append( ", \"score\": " ).append( jsonNumber( results.score( i )));
+            json.append( "}" );
+        }
+        json.append( "]}" );
+        send( exchange, 200, json.toString() );
+    }
+
+
+    private void handleStats( HttpExchange exchange ) throws IOException {
+        StringBuilder json = new StringBuilder();
+        json.append( "{\"documents\": " ).append( Index.docNames.size() );
+        json.append( ", \"queryCache\": " ).append( quote( engine.searcher.cache.toString() ));
+        if ( engine.index instanceof PersistentHashedIndex ) {
+            json.append( ", \"postingsCache\": " ).append( quote( ((PersistentHashedIndex)engine.index).postingsCache.toString() ));
+        } else if ( engine.index instanceof HashedIndex ) {
+            json.append( ", \"postingsCache\": " ).append( quote( ((HashedIndex)engine.index).postingsCache.toString() ));
+        }
+        json.append( "}" );
+        send( exchange, 200, json.toString() );
+    }
+
+
+    /** JSON has no NaN or Infinity, so those scores are written as null. */
+    static String jsonNumber( double value ) {
+        return Double.isNaN( value ) || Double.isInfinite( value ) ? "null" : String.valueOf( value );
+    }
+
+
+    private static void send( HttpExchange exchange, int status, String json ) throws IOException {
+        byte[] body = json.getBytes( StandardCharsets.UTF_8 );
+        exchange.getResponseHeaders().set( "Content-Type", "application/json; charset=utf-8" );
+        exchange.sendResponseHeaders( status, body.length );
+        try ( OutputStream out = exchange.getResponseBody() ) {
+            out.write( body );
+        }
+    }
+
+
+    /**
+     *  Parses an enum constant, ignoring case and an optional suffix
+     *  (e.g. "ranked" for RANKED_QUERY).
+     */
+    static <E extends Enum<E>> E parseEnum( Class<E> type, String value, E defaultValue, String suffix ) {
+        if ( value == null || value.isEmpty() ) {
+            return defaultValue;
+        }
+        String name = value.trim().toUpperCase( Locale.ROOT ).replace( '-', '_' );
+        for ( E constant : type.getEnumConstants() ) {
+            if ( constant.name().equals( name ) || constant.name().equals( name + suffix )) {
+                return constant;
+            }
+        }
+        throw new IllegalArgumentException( "unknown " + type.getSimpleName() + ": " + value );
+    }
+
+
+    /** Parses the parameters of a URL query string. */
+    static HashMap<String,String> parseQueryString( String rawQuery ) {
+        HashMap<String,String> params = new HashMap<String,String>();
+        if ( rawQuery == null ) {
+            return params;
+        }
+        for ( String pair : rawQuery.split( "&" )) {
+            if ( pair.isEmpty() ) {
+                continue;
+            }
+            int eq = pair.indexOf( '=' );
+            String name = eq < 0 ? pair : pair.substring( 0, eq );
+            String value = eq < 0 ? "" : pair.substring( eq + 1 );
+            params.put( URLDecoder.decode( name, StandardCharsets.UTF_8 ), URLDecoder.decode( value, StandardCharsets.UTF_8 ));
+        }
+        return params;
+    }
+
+
+    /**
+     *  Parses a flat JSON object whose values are strings, numbers, booleans
+     *  or null, which is all that a search request needs. The values are
+     *  returned as strings.
+     */
+    static HashMap<String,String> parseJsonObject( String json ) {
+        HashMap<String,String> values = new HashMap<String,String>();
+        int[] pos = { skipWhitespace( json, 0 ) };
+        expect( json, pos, '{' );
+        if ( peek( json, pos ) == '}' ) {
+            return values;
+        }
+        while ( true ) {
+            String name = parseJsonString( json, pos );
+            expect( json, pos, ':' );
+            String value;
+            if ( peek( json, pos ) == '"' ) {
+                value = parseJsonString( json, pos );
+            } else {
+                int start = pos[0];
+                while ( pos[0] < json.length() && ",} \t\r\n".indexOf( json.charAt( pos[0] )) < 0 ) {
+                    pos[0]++;
+                }
+                value = json.substring( start, pos[0] );
+                if ( value.isEmpty() ) {
+                    throw new IllegalArgumentException( "malformed JSON at " + start );
+                }
+                if ( value.equals( "null" )) {
+                    value = null;
+                }
+            }
+            values.put( name, value );
+            if ( peek( json, pos ) == ',' ) {
+                expect( json, pos, ',' );
+            } else {
+                expect( json, pos, '}' );
+                return values;
+            }
+        }
+    }
+
+    private static String parseJsonString( String json, int[] pos ) {
+        expect( json, pos, '"' );
+        StringBuilder s = new StringBuilder();
+        int p = pos[0];
+        while ( true ) {
+            if ( p >= json.length() ) {
+                throw new IllegalArgumentException( "unterminated JSON string" );
+            }
+            char c = json.charAt( p++ );
+            if ( c == '"' ) {
+                break;
+            }
+            if ( c == '\\' && p < json.length() ) {
+                char e = json.charAt( p++ );
+                switch ( e ) {
+                case 'n': s.append( '\n' ); break;
+                case 't': s.append( '\t' ); break;
+                case 'r': s.append( '\r' ); break;
+                case 'b': s.append( '\b' ); break;
+                case 'f': s.append( '\f' ); break;
+                case 'u':
+                    if ( p + 4 > json.length() ) {
+                        throw new IllegalArgumentException( "malformed JSON escape" );
+                    }
+                    s.append( (char)Integer.parseInt( json.substring( p, p + 4 ), 16 ));
+                    p += 4;
+                    break;
+                default: s.append( e );
+                }
+            } else {
+                s.append( c );
+            }
+        }
+        pos[0] = skipWhitespace( json, p );
+        return s.toString();
+    }
+
+    private static void expect( String json, int[] pos, char c ) {
+        if ( pos[0] >= json.length() || json.charAt( pos[0] ) != c ) {
+            throw new IllegalArgumentException( "expected '" + c + "' at " + pos[0] + " in JSON" );
+        }
+        pos[0] = skipWhitespace( json, pos[0] + 1 );
+    }
+
+    private static char peek( String json, int[] pos ) {
+        return pos[0] < json.length() ? json.charAt( pos[0] ) : 0;
+    }
+
+    private static int skipWhitespace( String json, int p ) {
+        while ( p < json.length() && Character.isWhitespace( json.charAt( p ))) {
+            p++;
+        }
+        return p;
+    }
+
+
+    /** A JSON string literal. */
+    static String quote( String s ) {
+        if ( s == null ) {
+            return "null";
+        }
+        StringBuilder q = new StringBuilder( s.length() + 2 );
+        q.append( '"' );
+        for ( int i = 0; i < s.length(); i++ ) {
+            char c = s.charAt( i );
+            switch ( c ) {
+            case '"': q.append( "\\\"" ); break;
+            case '\\': q.append( "\\\\" ); break;
+            case '\n': q.append( "\\n" ); break;
+            case '\r': q.append( "\\r" ); break;
+            case '\t': q.append( "\\t" ); break;
+            default:
+                if ( c < 0x20 ) {
+                    q.append( String.format( "\\u%04x", (int)c ));
+                } else {
+                    q.append( c );
+                }
+            }
+        }
+        return q.append( '"' ).toString();
+    }
+}
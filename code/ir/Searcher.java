@@ -10,9 +10,12 @@ package ir;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.PriorityQueue;
 
 /**
  *  Searches an index for results of a query.
@@ -27,14 +30,59 @@ public class Searcher {
     
     /** Constructor */
     public Searcher( Index index, KGramIndex kgIndex ) {
+        this( index, kgIndex, true );
+    }
+
+    /**
+     *  Constructor. The PageRanks are read from PageRank_new.txt only if
+     *  <code>loadPageRankings</code> is true, otherwise the caller sets them.
+     */
+    Searcher( Index index, KGramIndex kgIndex, boolean loadPageRankings ) {
         this.index = index;
         this.kgIndex = kgIndex;
-        initPageRankings();
-
+        if ( loadPageRankings ) {
+            initPageRankings();
+        }
     }
     HashMap<Integer, Double> pageRankings = new HashMap<Integer, Double>();
 
-    HashMap<Integer, Double> doc_lengths = new HashMap<Integer, Double>();
+    /**
+     *  How the last intersection query of each thread was evaluated, see
+     *  planned_intersection. Searches run in parallel, so every thread
+     *  keeps the plan of its own query.
+     */
+    private final ThreadLocal<String> lastPlan = new ThreadLocal<String>() {
+        protected String initialValue() {
+            return "";
+        }
+    };
+
+    /** Euclidean lengths of the document vectors, indexed by docID. */
+    volatile double[] doc_lengths = new double[0];
+
+    /**
+     *  True while the index is being built. Searches can run at the same
+     *  time, but their results are not cached then.
+     */
+    volatile boolean indexing = false;
+
+    /** Recent search results. Has to be cleared when the index changes. */
+    volatile QueryCache cache = new QueryCache();
+
+    /** Impact-ordered postings for top-k tf-idf queries, if they have been built (see Engine, -impacts). */
+    volatile ImpactIndex impactIndex = null;
+
+    /** Ranked queries with more terms than this are scored term-at-a-time instead of with WAND. */
+    static final int MAX_WAND_TERMS = 16;
+
+    /** The largest PageRank of any document, the bound that top_k_ranked_search uses for it. */
+    double maxPageRank = 0;
+
+    /** The largest tf / document length of each term, per normalization type, for top_k_ranked_search. */
+    private HashMap<NormalizationType, HashMap<String, Double>> maxNormalizedTf = new HashMap<NormalizationType, HashMap<String, Double>>();
+
+    /** The doc_lengths that maxNormalizedTf was computed with. */
+    private double[] cachedDocLengths;
     void initPageRankings(){
         try {
             String filename = "PageRank_new.txt";
@@ -43,6 +91,7 @@ public class Searcher {
             while ((line = in.readLine()) != null) {
                 String[] tmp = line.trim().split(" ");
                 pageRankings.put(Integer.parseInt(tmp[0]), Double.parseDouble(tmp[1]));
+                maxPageRank = Math.max(maxPageRank, Double.parseDouble(tmp[1]));
             }
         } catch ( IOException e ) {
             e.printStackTrace();
@@ -55,19 +104,65 @@ public class Searcher {
      *  @return A postings list representing the result of the query.
      */
     public PostingsList search( Query query, QueryType queryType, RankingType rankingType, NormalizationType normType ) {
+        return search( query, queryType, rankingType, normType, Integer.MAX_VALUE );
+    }
+
+    /**
+     *  Searches the index for postings matching the query. A ranked query
+     *  only returns the k documents with the highest scores (see
+     *  top_k_ranked_search, or ImpactIndex for tf-idf when it has been
+     *  built), other queries return all matching documents.
+     *  @return A postings list representing the result of the query.
+     */
+    public PostingsList search( Query query, QueryType queryType, RankingType rankingType, NormalizationType normType, int k ) {
         if (query.queryterm.size() == 0) {
             return null;
         }
+        String key = QueryCache.key(query, queryType, rankingType, normType, k);
+        lastPlan.set("");
+        if (indexing) {
+            return evaluate(query, queryType, rankingType, normType, k);
+        }
+        PostingsList answer = cache.get(key);
+        if (answer == null) {
+            answer = evaluate(query, queryType, rankingType, normType, k);
+            cache.put(key, answer);
+        } else {
+            lastPlan.set("answered from the query cache");
+        }
+        return answer;
+    }
+
+    /**
+     *  Evaluates a query without looking in the cache, see search.
+     */
+    private PostingsList evaluate( Query query, QueryType queryType, RankingType rankingType, NormalizationType normType, int k ) {
         /*HashMap<String, Integer> query_vec = new HashMap<String, Integer>();*/
         ArrayList<PostingsList> allPostings = new ArrayList<PostingsList>();
         ArrayList<Double> weights = new ArrayList<Double>();
 
+        if (queryType == QueryType.RANKED_QUERY && impactIndex != null && rankingType == RankingType.TF_IDF && k != Integer.MAX_VALUE) {
+            // the impact-ordered postings are used instead of the postings lists
+            ArrayList<String> terms = new ArrayList<String>();
+            for (Query.QueryTerm queryTerm : query.queryterm) {
+                terms.add(queryTerm.term);
+                weights.add(queryTerm.weight);
+            }
+            PostingsList answer = impactIndex.search(terms, weights, normType, k);
+            if (answer != null) {
+                return answer;
+            }
+            weights.clear();
+        }
         for (Query.QueryTerm queryTerm : query.queryterm) {
             allPostings.add(index.getPostings(queryTerm.term));
             weights.add(queryTerm.weight);
         }
         if (queryType == QueryType.RANKED_QUERY) {
-            return ranked_search(allPostings, rankingType, pageRankings, normType, weights);
+            if (k == Integer.MAX_VALUE || allPostings.size() > MAX_WAND_TERMS) {
+                return ranked_search(allPostings, rankingType, pageRankings, normType, weights, k);
+            }
+            return top_k_ranked_search(query, allPostings, rankingType, normType, weights, k);
         }
 
         if (allPostings.size() <= 1) {
@@ -78,10 +173,7 @@ public class Searcher {
          * I modified the right term (p1, p2) (p2) to keep the track of the result of the intersection.
          * */
         if (queryType == QueryType.INTERSECTION_QUERY) {
-            for (int i = 0; i < allPostings.size() - 1; i++) {
-                allPostings.set(i + 1, intersect(allPostings.get(i), allPostings.get(i + 1)));
-            }
-            return allPostings.get(allPostings.size() - 1);
+            return planned_intersection(query, allPostings);
 
         } else if (queryType == QueryType.PHRASE_QUERY) {
             for (int i = 0; i < allPostings.size() - 1; i++) {
@@ -93,49 +185,446 @@ public class Searcher {
         return null;
     }
 
+    /**
+     * Intersects the postings lists of all query terms, starting with the term with the smallest document
+     * frequency and going on in order of increasing frequency. The intermediate result is then never larger
+     * than the rarest list, and as soon as it is empty the rest of the lists are not looked at.
+     * The order that was used is kept in lastPlan, for the calling thread.
+     */
+    public PostingsList planned_intersection(Query query, ArrayList<PostingsList> allPostings) {
+        Integer[] order = new Integer[allPostings.size()];
+        final int[] df = new int[allPostings.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+            df[i] = allPostings.get(i) == null ? 0 : allPostings.get(i).size();
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return Integer.compare(df[a], df[b]);
+            }
+        });
+
+        StringBuilder plan = new StringBuilder();
+        PostingsList answer = allPostings.get(order[0]);
+        plan.append(query.queryterm.get(order[0]).term).append("(").append(df[order[0]]).append(")");
+        for (int k = 1; k < order.length; k++) {
+            if (answer == null || answer.size() == 0) {
+                plan.append(" -> empty, stopped");
+                break;
+            }
+            int i = order[k];
+            answer = intersect(answer, allPostings.get(i));
+            plan.append(" AND ").append(query.queryterm.get(i).term).append("(").append(df[i]).append(")")
+                .append(" = ").append(answer.size());
+        }
+        lastPlan.set(plan.toString());
+        return answer == null ? new PostingsList() : answer;
+    }
+
+    /**
+     *  The plan of the last intersection query searched by the calling
+     *  thread, e.g. "zombie(12) AND the(54) = 12".
+     */
+    public String getLastPlan() {
+        return lastPlan.get();
+    }
+
     public PostingsList ranked_search(ArrayList<PostingsList> allPostings, RankingType rankingType, HashMap<Integer, Double> pageRankings, NormalizationType normType
             , ArrayList<Double> weights) {
+        return ranked_search(allPostings, rankingType, pageRankings, normType, weights, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Reusable score accumulator for term-at-a-time scoring. scores[docID] is only valid if stamp[docID] is the
+     * current generation, so nothing has to be cleared between queries. touched lists the documents that got a
+     * score, in the order they got it.
+     */
+    static class Accumulator {
+        double[] scores = new double[0];
+        int[] stamp = new int[0];
+        int generation = 0;
+        int[] touched = new int[16];
+        int numTouched = 0;
+
+        void reset() {
+            numTouched = 0;
+            if (++generation == Integer.MAX_VALUE) {
+                Arrays.fill(stamp, 0);
+                generation = 1;
+            }
+        }
+
+        void add(int docID, double score) {
+            if (docID >= scores.length) {
+                int capacity = Math.max(docID + 1, 2 * scores.length);
+                scores = Arrays.copyOf(scores, capacity);
+                stamp = Arrays.copyOf(stamp, capacity);
+            }
+            if (stamp[docID] == generation) {
+                scores[docID] += score;
+                return;
+            }
+            stamp[docID] = generation;
+            scores[docID] = score;
+            if (numTouched == touched.length) {
+                touched = Arrays.copyOf(touched, 2 * numTouched);
+            }
+            touched[numTouched++] = docID;
+        }
+
+        /** Is touched[a] a better result than touched[b]? Equal scores keep the order they were touched in. */
+        boolean better(int a, int b) {
+            double sa = scores[touched[a]], sb = scores[touched[b]];
+            return sa != sb ? Double.compare(sa, sb) > 0 : a < b;
+        }
+
+        /**
+         * Returns the positions in touched of the n best documents (or all of them if there are fewer), best
+         * first. They are selected with a heap of size n that has the worst of them at the top.
+         */
+        int[] top(int n) {
+            n = Math.min(n, numTouched);
+            int[] heap = new int[n];
+            for (int t = 0; t < numTouched; t++) {
+                if (t < n) {
+                    heap[t] = t;
+                    for (int c = t; c > 0 && better(heap[(c - 1) / 2], heap[c]); c = (c - 1) / 2) {
+                        swap(heap, c, (c - 1) / 2);
+                    }
+                } else if (better(t, heap[0])) {
+                    heap[0] = t;
+                    siftDown(heap, n);
+                }
+            }
+            // taking out the worst one at a time gives the results from the back
+            int[] order = new int[n];
+            for (int m = n; m > 0; m--) {
+                order[m - 1] = heap[0];
+                heap[0] = heap[m - 1];
+                siftDown(heap, m - 1);
+            }
+            return order;
+        }
+
+        private void siftDown(int[] heap, int size) {
+            int p = 0;
+            while (true) {
+                int c = 2 * p + 1;
+                if (c >= size) {
+                    return;
+                }
+                if (c + 1 < size && better(heap[c], heap[c + 1])) {
+                    c++;
+                }
+                if (!better(heap[p], heap[c])) {
+                    return;
+                }
+                swap(heap, p, c);
+                p = c;
+            }
+        }
+
+        private static void swap(int[] a, int i, int j) {
+            int tmp = a[i];
+            a[i] = a[j];
+            a[j] = tmp;
+        }
+    }
+
+    /** One accumulator per searching thread. */
+    static final ThreadLocal<Accumulator> accumulators = new ThreadLocal<Accumulator>() {
+        protected Accumulator initialValue() {
+            return new Accumulator();
+        }
+    };
+
+    /**
+     * Scores the postings term-at-a-time into a reusable double[] accumulator, so no objects are created per
+     * posting. Only the k best documents are then selected, with a heap of size k, and sorted by decreasing
+     * score (equal scores stay in the order the documents were first scored in). This works for any number of
+     * terms, e.g. the long queries that relevance feedback gives.
+     */
+    public PostingsList ranked_search(ArrayList<PostingsList> allPostings, RankingType rankingType, HashMap<Integer, Double> pageRankings, NormalizationType normType
+            , ArrayList<Double> weights, int k) {
         PostingsList answer = new PostingsList();
         if (allPostings.size() == 0) {
             return answer;
         }
+        Accumulator acc = accumulators.get();
+        acc.reset();
         double score = 0;
 
         for (int i = 0; i < allPostings.size(); i++) {
-            for (int j = 0; j < allPostings.get(i).size(); j++) {
-                PostingsEntry postingsEntry = allPostings.get(i).get(j);
+            PostingsList postingsList = allPostings.get(i);
+            if (postingsList == null || postingsList.size() == 0) {
+                // the term is not in the index
+                continue;
+            }
+            double weight = weights.get(i);
+            for (int j = 0; j < postingsList.size(); j++) {
+                int docID = postingsList.docID(j);
+                int tf = postingsList.offsetCount(j);
 
                 if (RankingType.TF_IDF == rankingType) {
                     if (normType == NormalizationType.NUMBER_OF_WORDS){
-                        score = calculate_score(postingsEntry, allPostings.get(i).size(), index.docLengths.get(postingsEntry.docID));
+                        score = calculate_score(tf, postingsList.size(), Index.docLengths.get(docID));
                     } else if (normType == NormalizationType.EUCLIDEAN) {
-                        score = calculate_score(postingsEntry, allPostings.get(i).size(), doc_lengths.get(postingsEntry.docID)) ;
+                        score = calculate_score(tf, postingsList.size(), euclidean_length(docID)) ;
                     }
-                    score *= weights.get(i);
-                    answer.add_scored(postingsEntry.docID, score,0);
+                    score *= weight;
+                    acc.add(docID, score);
                 } else if (RankingType.PAGERANK == rankingType) {
-                    if (postingsEntry.score ==0){
-                        score = pageRankings.get(postingsEntry.docID);
-                        answer.add_scored(postingsEntry.docID, score,0);
+                    if (postingsList.score(j) ==0){
+                        score = pageRankings.get(docID);
+                        acc.add(docID, score);
                     }
                 }else if (RankingType.COMBINATION == rankingType) {
                     if (normType == NormalizationType.NUMBER_OF_WORDS){
-                        score = calculate_score(postingsEntry, allPostings.get(i).size(), index.docLengths.get(postingsEntry.docID));
+                        score = calculate_score(tf, postingsList.size(), Index.docLengths.get(docID));
                     } else if (normType == NormalizationType.EUCLIDEAN) {
-                        score = calculate_score(postingsEntry, allPostings.get(i).size(), doc_lengths.get(postingsEntry.docID)) ;
+                        score = calculate_score(tf, postingsList.size(), euclidean_length(docID)) ;
                     }
-                    score += 100 * pageRankings.get(postingsEntry.docID);
-                    score *= weights.get(i);
-                    answer.add_scored(postingsEntry.docID, score,0);
+                    score += 100 * pageRankings.get(docID);
+                    score *= weight;
+                    acc.add(docID, score);
                 }
             }
         }
-        answer.sort_list();
+
+        int[] order = acc.top(k);
+        for (int t : order) {
+            int docID = acc.touched[t];
+            answer.append_scored(docID, acc.scores[docID]);
+        }
         return answer;
 
     }
-    public double calculate_score(PostingsEntry postingsEntry, double df, double len_d) {
-        double tf = postingsEntry.offsets.size();
+
+    /**
+     * One query term during top_k_ranked_search: its postings list, the current position in the list and an
+     * upper bound of the score that the term can add to any document.
+     */
+    private static class Cursor {
+        int term;
+        PostingsList postings;
+        int pos = 0;
+        double maxScore;
+
+        int docID() {
+            return pos < postings.size() ? postings.docID(pos) : Integer.MAX_VALUE;
+        }
+    }
+
+    /** A scored document in the top-k heap. */
+    private static class Candidate {
+        int docID;
+        double score;
+        // the first query term that has the document, to order equal scores the same way as ranked_search
+        int firstTerm;
+    }
+
+    /** Orders candidates from the worst to the best. */
+    private static final Comparator<Candidate> WORST_FIRST = new Comparator<Candidate>() {
+        public int compare(Candidate a, Candidate b) {
+            if (a.score != b.score) {
+                return Double.compare(a.score, b.score);
+            }
+            if (a.firstTerm != b.firstTerm) {
+                return Integer.compare(b.firstTerm, a.firstTerm);
+            }
+            return Integer.compare(b.docID, a.docID);
+        }
+    };
+
+    /**
+     * Returns the k best documents for a ranked query, with the same scores and in the same order as the first k
+     * documents of ranked_search, but without scoring every posting.
+     *
+     * The lists are traversed document-at-a-time with the WAND algorithm. Every term has an upper bound of the
+     * score it can add to a document (see maxScore). The cursors are kept in order of their current docID,
+     * and the pivot is the first cursor where the sum of the bounds of the cursors up to it reaches the score
+     * of the kth best document so far. No document before the pivot's docID can get into the top k, so the
+     * cursors before the pivot skip straight to it, and only documents that might make it are scored. The k
+     * best documents are kept in a min-heap.
+     */
+    public PostingsList top_k_ranked_search(Query query, ArrayList<PostingsList> allPostings, RankingType rankingType,
+                                            NormalizationType normType, ArrayList<Double> weights, int k) {
+        PostingsList answer = new PostingsList();
+        ArrayList<Cursor> list = new ArrayList<Cursor>();
+        for (int i = 0; i < allPostings.size(); i++) {
+            if (weights.get(i) < 0) {
+                // the bounds below assume that every term adds a non-negative score
+                return ranked_search(allPostings, rankingType, pageRankings, normType, weights, k);
+            }
+            if (allPostings.get(i) == null || allPostings.get(i).size() == 0) {
+                continue;
+            }
+            Cursor cursor = new Cursor();
+            cursor.term = i;
+            cursor.postings = allPostings.get(i);
+            cursor.maxScore = maxScore(query.queryterm.get(i).term, cursor.postings, rankingType, normType, weights.get(i));
+            if (Double.isNaN(cursor.maxScore) || Double.isInfinite(cursor.maxScore)) {
+                return ranked_search(allPostings, rankingType, pageRankings, normType, weights, k);
+            }
+            list.add(cursor);
+        }
+        Cursor[] cursors = list.toArray(new Cursor[0]);
+        if (k <= 0 || cursors.length == 0) {
+            return answer;
+        }
+
+        PriorityQueue<Candidate> heap = new PriorityQueue<Candidate>(Math.min(k, 1024) + 1, WORST_FIRST);
+        while (true) {
+            // insertion sort by docID, the cursors are almost in order from the last round
+            for (int i = 1; i < cursors.length; i++) {
+                Cursor cursor = cursors[i];
+                int j = i - 1;
+                while (j >= 0 && cursors[j].docID() > cursor.docID()) {
+                    cursors[j + 1] = cursors[j];
+                    j--;
+                }
+                cursors[j + 1] = cursor;
+            }
+
+            // find the pivot
+            double threshold = heap.size() < k ? Double.NEGATIVE_INFINITY : heap.peek().score;
+            double bound = 0;
+            int pivot = -1;
+            for (int i = 0; i < cursors.length && cursors[i].docID() != Integer.MAX_VALUE; i++) {
+                bound += cursors[i].maxScore;
+                // a document with the same score as the threshold may still win on the order, and the
+                // sum of the bounds may be rounded differently from the actual score
+                if (bound * (1 + 1e-9) + 1e-12 >= threshold) {
+                    pivot = i;
+                    break;
+                }
+            }
+            if (pivot < 0) {
+                break;
+            }
+            int pivotDocID = cursors[pivot].docID();
+
+            if (cursors[0].docID() == pivotDocID) {
+                // all the lists that have the document are at it, so it can be scored
+                Candidate candidate = new Candidate();
+                candidate.docID = pivotDocID;
+                candidate.firstTerm = Integer.MAX_VALUE;
+                for (int i = 0; i < allPostings.size(); i++) {
+                    for (Cursor cursor : cursors) {
+                        if (cursor.term == i && cursor.docID() == pivotDocID) {
+                            candidate.score += termScore(cursor, rankingType, normType, weights.get(i));
+                            candidate.firstTerm = Math.min(candidate.firstTerm, i);
+                        }
+                    }
+                }
+                if (heap.size() < k) {
+                    heap.add(candidate);
+                } else if (WORST_FIRST.compare(candidate, heap.peek()) > 0) {
+                    heap.poll();
+                    heap.add(candidate);
+                }
+                for (Cursor cursor : cursors) {
+                    if (cursor.docID() == pivotDocID) {
+                        cursor.pos++;
+                    }
+                }
+            } else {
+                for (int i = 0; i < pivot; i++) {
+                    cursors[i].pos = cursors[i].postings.advance(cursors[i].pos, pivotDocID);
+                }
+            }
+        }
+
+        Candidate[] best = heap.toArray(new Candidate[0]);
+        Arrays.sort(best, Collections.reverseOrder(WORST_FIRST));
+        for (Candidate candidate : best) {
+            answer.append_scored(candidate.docID, candidate.score);
+        }
+        return answer;
+    }
+
+    /**
+     * The score that the term of the cursor adds to the document the cursor is at. Computed the same way
+     * as in ranked_search, so that the sums come out exactly the same.
+     */
+    private double termScore(Cursor cursor, RankingType rankingType, NormalizationType normType, double weight) {
+        int docID = cursor.postings.docID(cursor.pos);
+        int tf = cursor.postings.offsetCount(cursor.pos);
+        double score = 0;
+        if (RankingType.PAGERANK == rankingType) {
+            return pageRankings.get(docID);
+        }
+        if (normType == NormalizationType.NUMBER_OF_WORDS){
+            score = calculate_score(tf, cursor.postings.size(), Index.docLengths.get(docID));
+        } else if (normType == NormalizationType.EUCLIDEAN) {
+            score = calculate_score(tf, cursor.postings.size(), euclidean_length(docID)) ;
+        }
+        if (RankingType.COMBINATION == rankingType) {
+            score += 100 * pageRankings.get(docID);
+        }
+        return score * weight;
+    }
+
+    /**
+     * An upper bound of the score that a term adds to any document in its postings list. The largest
+     * tf / length of the list only depends on the normalization, so it is cached per term.
+     */
+    private double maxScore(String term, PostingsList postings, RankingType rankingType, NormalizationType normType, double weight) {
+        if (RankingType.PAGERANK == rankingType) {
+            return maxPageRank;
+        }
+        double[] lengths = doc_lengths;
+        Double maxTf = indexing ? null : cachedMaxTf(term, normType, lengths);
+        if (maxTf == null) {
+            double max = 0;
+            for (int j = 0; j < postings.size(); j++) {
+                int docID = postings.docID(j);
+                double length = normType == NormalizationType.EUCLIDEAN ? euclidean_length(docID) : Index.docLengths.get(docID);
+                max = Math.max(max, postings.offsetCount(j) / length);
+            }
+            maxTf = max;
+            if (!indexing) {
+                cacheMaxTf(term, normType, lengths, maxTf);
+            }
+        }
+        double idf = Math.log(Index.docNames.size() / (double)postings.size());
+        double bound = maxTf * idf;
+        if (RankingType.COMBINATION == rankingType) {
+            bound += 100 * maxPageRank;
+        }
+        return bound * weight;
+    }
+
+    /** Looks up the largest tf / length of a term, computed with the given Euclidean lengths. */
+    private synchronized Double cachedMaxTf(String term, NormalizationType normType, double[] lengths) {
+        if (cachedDocLengths != lengths || maxNormalizedTf.get(normType) == null) {
+            return null;
+        }
+        return maxNormalizedTf.get(normType).get(term);
+    }
+
+    private synchronized void cacheMaxTf(String term, NormalizationType normType, double[] lengths, double maxTf) {
+        if (cachedDocLengths != lengths) {
+            // the lengths have changed, so has the index
+            maxNormalizedTf.clear();
+            cachedDocLengths = lengths;
+        }
+        if (maxNormalizedTf.get(normType) == null) {
+            maxNormalizedTf.put(normType, new HashMap<String, Double>());
+        }
+        maxNormalizedTf.get(normType).put(term, maxTf);
+    }
+
+    /**
+     * The Euclidean length of a document. While the index is being built the lengths are not known yet, and
+     * the number of words is used instead.
+     */
+    double euclidean_length(int docID) {
+        double[] lengths = doc_lengths;
+        return docID < lengths.length ? lengths[docID] : Index.docLengths.get(docID);
+    }
+
+    public double calculate_score(double tf, double df, double len_d) {
         double idf = Math.log(index.docNames.size() / df);
         return (tf * idf) / len_d; // tf_idf
     }
@@ -144,6 +633,8 @@ public class Searcher {
 
     /**
      * Because we added the documents and offsets in a sorted manner, we can use this algorithm.
+     * When one list is behind, it skips ahead with PostingsList.advance, so a rare term intersected with a
+     * common one only looks at a logarithmic part of the common list between two matches.
      */
     public PostingsList intersect(PostingsList p1, PostingsList p2){
         PostingsList answer = new PostingsList();
@@ -152,14 +643,14 @@ public class Searcher {
             return answer;
         }
         while (i != p1.size()  && j != p2.size()) {
-            if (p1.get(i).docID == p2.get(j).docID) {
-                answer.add(p1.get(i).docID, 0);
+            if (p1.docID(i) == p2.docID(j)) {
+                answer.add(p1.docID(i), 0);
                 i++;
                 j++;
-            } else if (p1.get(i).docID < p2.get(j).docID) {
-                i++;
+            } else if (p1.docID(i) < p2.docID(j)) {
+                i = p1.advance(i + 1, p2.docID(j));
             } else {
-                j++;
+                j = p2.advance(j + 1, p1.docID(i));
             }
         }
         return answer;
@@ -167,8 +658,7 @@ public class Searcher {
 
 
     /**
-     * Actually I would have used skip pointers to increase the speed of the algorithm.
-     * But I think this approach is also fast enough.
+     * The documents are matched with skips (PostingsList.advance), the same way as in intersect.
      *
      * And also I added input k to care of also the more general cases. K is the maximum distance between the offsets.
      *
@@ -185,14 +675,15 @@ public class Searcher {
         int i = 0, j = 0;
         int offset1 , offset2;
         while (i != p1.size()  && j != p2.size()) {
-            if (p1.get(i).docID == p2.get(j).docID) {
+            if (p1.docID(i) == p2.docID(j)) {
                 offset1 = 0;
                 offset2 = 0;
-                while (offset1 != p1.get(i).offsets.size() && offset2 != p2.get(j).offsets.size()) {
-                    int diff = p2.get(j).offsets.get(offset2) - p1.get(i).offsets.get(offset1) ;
+                int count1 = p1.offsetCount(i), count2 = p2.offsetCount(j);
+                while (offset1 != count1 && offset2 != count2) {
+                    int diff = p2.offset(j, offset2) - p1.offset(i, offset1) ;
                     if (diff <= k && diff >= 0) {
                         //offset 2 because we need the second one
-                        answer.add(p1.get(i).docID, p2.get(j).offsets.get(offset2));
+                        answer.add(p1.docID(i), p2.offset(j, offset2));
                         offset1++;
                         offset2++;
                     }
@@ -204,7 +695,7 @@ public class Searcher {
                         answer.add(p1.get(i).docID, p2.get(j).offsets.get(offset2));
                         offset1++;
                         offset2++;
-                    } */else if (p1.get(i).offsets.get(offset1) < p2.get(j).offsets.get(offset2)) {
+                    } */else if (p1.offset(i, offset1) < p2.offset(j, offset2)) {
                         offset1++;
                     } else {
                         offset2++;
@@ -212,10 +703,10 @@ public class Searcher {
                 }
                 i++;
                 j++;
-            } else if (p1.get(i).docID < p2.get(j).docID) {
-                i++;
+            } else if (p1.docID(i) < p2.docID(j)) {
+                i = p1.advance(i + 1, p2.docID(j));
             } else {
-                j++;
+                j = p2.advance(j + 1, p1.docID(i));
             }
         }
 
@@ -0,0 +1,393 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ *
+ *   Serhan Cakmak, 2024
+ */
+
+package ir;
+
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+
+/**
+ *   The patterns for non-standard words of the Tokenizer, compiled into
+ *   one matcher.
+ *
+ *   The Tokenizer uses the first pattern (in the order of the patterns
+ *   file) that matches anywhere in a candidate token, at the leftmost
+ *   position where that pattern matches. Instead of trying the patterns one
+ *   by one, they are combined into the alternation (p1)|(p2)|..., which
+ *   finds the leftmost position where any of them matches in a single
+ *   pass. If the alternative that matched there is pattern i, only the
+ *   patterns before i can still be the first to match (at a later position),
+ *   so only they are tried separately. Since the patterns are rarely found
+ *   in a token, this is usually one pass over the candidate.
+ *
+ *   Most candidates are plain words, which is checked without any regular
+ *   expression: every pattern that can be analyzed has some character that
+ *   each of its matches must contain (like the @ of an e-mail address or
+ *   the digits of a number), and a candidate with none of these characters
+ *   can't match. Only a small subset of the syntax is analyzed (see
+ *   requiredCharacters). If some pattern uses anything else, or has no such
+ *   character, this prefilter is turned off. If the patterns use back references, which the renumbered
+ *   groups of the alternation would break, they are tried one by one.
+ *
+ *   A TokenPatterns is immutable and can be shared by threads, each of which
+ *   matches with its own Finder.
+ */
+public class TokenPatterns {
+
+    /** The patterns, in the order they are tried. */
+    final Pattern[] patterns;
+
+    /** The alternation of all patterns, or null if they are tried one by one. */
+    final Pattern combined;
+
+    /** The group of the alternation that holds the match of each pattern. */
+    final int[] groups;
+
+    /** The ASCII characters that a match must contain, or null if any candidate can match. */
+    final boolean[] required;
+
+
+    public TokenPatterns( List<Pattern> patterns ) {
+        this.patterns = patterns.toArray( new Pattern[0] );
+        groups = new int[this.patterns.length];
+        boolean[] required = new boolean[128];
+        boolean filterable = true;
+        boolean backReferences = false;
+        StringBuilder alternation = new StringBuilder();
+        int group = 1;
+        for ( int i=0; i<this.patterns.length; i++ ) {
+            String p = this.patterns[i].pattern();
+            filterable &= requiredCharacters( this.patterns[i], required );
+            backReferences |= p.matches( "(?s).*\\\\([1-9]|k<).*" );
+            if ( i > 0 ) {
+                alternation.append( '|' );
+            }
+            alternation.append( '(' ).append( p ).append( ')' );
+            groups[i] = group;
+            group += 1 + this.patterns[i].matcher( "" ).groupCount();
+        }
+        Pattern c = null;
+        if ( !backReferences && this.patterns.length > 1 ) {
+            try {
+                c = Pattern.compile( alternation.toString() );
+            } catch ( PatternSyntaxException e ) {
+                // e.g. the same group name in two patterns
+            }
+        }
+        combined = c;
+        this.required = filterable ? required : null;
+    }
+
+
+    /**
+     *  Returns a new Finder, for one thread.
+     */
+    public Finder finder() {
+        return new Finder();
+    }
+
+
+    /**
+     *  Finds the non-standard word in a candidate token, like trying each
+     *  pattern in order and taking the leftmost match of the first one
+     *  that matches.
+     */
+    public class Finder {
+        private final Matcher[] matchers;
+        private final Matcher combinedMatcher;
+        private int start;
+        private int end;
+
+        Finder() {
+            matchers = new Matcher[patterns.length];
+            for ( int i=0; i<matchers.length; i++ ) {
+                matchers[i] = patterns[i].matcher( "" );
+            }
+            combinedMatcher = combined != null ? combined.matcher( "" ) : null;
+        }
+
+        /**
+         *  @return <code>true</code> if some pattern matches in <code>s</code>.
+         *  The match is then s[start() .. end()-1].
+         */
+        public boolean find( CharSequence s ) {
+            if ( required != null && !containsRequired( s )) {
+                return false;
+            }
+            int last = matchers.length;
+            if ( combinedMatcher != null ) {
+                combinedMatcher.reset( s );
+                if ( !combinedMatcher.find() ) {
+                    return false;
+                }
+                last = 0;
+                while ( combinedMatcher.start( groups[last] ) < 0 ) {
+                    last++;
+                }
+            }
+            // pattern 'last' matched leftmost; an earlier pattern can still match further right
+            for ( int i=0; i<last; i++ ) {
+                matchers[i].reset( s );
+                if ( matchers[i].find() ) {
+                    start = matchers[i].start();
+                    end = matchers[i].end();
+                    return true;
+                }
+            }
+            if ( combinedMatcher != null ) {
+                start = combinedMatcher.start();
+                end = combinedMatcher.end();
+                return true;
+            }
+            return false;
+        }
+
+        public int start() {
+            return start;
+        }
+
+        public int end() {
+            return end;
+        }
+    }
+
+
+    private boolean containsRequired( CharSequence s ) {
+        for ( int i=0; i<s.length(); i++ ) {
+            char c = s.charAt( i );
+            if ( c < 128 && required[c] ) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    /* ----------------------------------------------- */
+
+
+    /**
+     *  Adds to <code>required</code> a set of ASCII characters, no letters,
+     *  such that every match of <code>pattern</code> contains one of them.
+     *
+     *  Only a small subset of the regular expression syntax is analyzed:
+     *  literal ASCII characters, character classes, the escapes \d \s \w
+     *  \D \S \W and escaped punctuation, . , the quantifiers ? * + {n,m},
+     *  alternation, and groups (...) and (?:...). Anything else (flags,
+     *  lookaround, anchors, named groups, other escapes) turns the prefilter
+     *  off. Which characters an atom matches is not worked out here but
+     *  asked of java.util.regex, by matching the atom on its own against
+     *  the characters.
+     *
+     *  @return <code>false</code> if no such set could be found.
+     */
+    static boolean requiredCharacters( Pattern pattern, boolean[] required ) {
+        if ( pattern.flags() != 0 ) {
+            return false;
+        }
+        boolean[] set;
+        try {
+            Analysis analysis = new Analysis( pattern.pattern() );
+            set = analysis.alternation();
+            if ( analysis.i != analysis.p.length() ) {
+                return false;
+            }
+        } catch ( IllegalArgumentException | IndexOutOfBoundsException e ) {
+            // syntax outside the analyzed subset
+            return false;
+        }
+        if ( set == null ) {
+            return false;
+        }
+        or( required, set );
+        return true;
+    }
+
+
+    /**
+     *  A recursive descent over a pattern, which throws an
+     *  IllegalArgumentException at the first construct it does not know.
+     */
+    private static class Analysis {
+        final String p;
+        int i = 0;
+
+        Analysis( String p ) {
+            this.p = p;
+        }
+
+        /**
+         *  The required characters of alternatives separated by |: the union
+         *  of the sets of the alternatives, or null if some alternative has none.
+         */
+        boolean[] alternation() {
+            boolean[] union = new boolean[128];
+            boolean all = true;
+            while ( true ) {
+                boolean[] set = sequence();
+                if ( set == null ) {
+                    all = false;
+                } else {
+                    or( union, set );
+                }
+                if ( i < p.length() && p.charAt( i ) == '|' ) {
+                    i++;
+                } else {
+                    return all ? union : null;
+                }
+            }
+        }
+
+        /**
+         *  The required characters of a sequence of atoms: those of the first
+         *  atom that is not optional and matches no letters, or null if there
+         *  is no such atom.
+         */
+        boolean[] sequence() {
+            boolean[] found = null;
+            while ( i < p.length() && p.charAt( i ) != '|' && p.charAt( i ) != ')' ) {
+                boolean[] atom = atom();
+                boolean optional = quantifier();
+                if ( found == null && atom != null && !optional && !containsLetter( atom )) {
+                    found = atom;
+                }
+            }
+            return found;
+        }
+
+        /**
+         *  The characters of the atom at p[i], or null if they are not a known
+         *  set of ASCII characters.
+         */
+        boolean[] atom() {
+            int start = i;
+            char c = p.charAt( i++ );
+            if ( c == '(' ) {
+                if ( p.charAt( i ) == '?' ) {
+                    if ( p.charAt( i+1 ) != ':' ) {
+                        throw new IllegalArgumentException( "group construct" );
+                    }
+                    i += 2;
+                }
+                boolean[] set = alternation();
+                if ( p.charAt( i++ ) != ')' ) {
+                    throw new IllegalArgumentException( "unclosed group" );
+                }
+                return set;
+            } else if ( c == '[' ) {
+                if ( p.charAt( i ) == ']' || p.startsWith( "^]", i )) {
+                    throw new IllegalArgumentException( "] in a character class" );
+                }
+                while ( p.charAt( i ) != ']' ) {
+                    char b = p.charAt( i++ );
+                    if ( b == '[' || b >= 128 ) {
+                        throw new IllegalArgumentException( "nested or non-ASCII character class" );
+                    } else if ( b == '\\' ) {
+                        escape();
+                    }
+                }
+                i++;
+                return characters( p.substring( start, i ), true );
+            } else if ( c == '\\' ) {
+                char e = escape();
+                return "DSW".indexOf( e ) >= 0 ? null : characters( p.substring( start, i ), false );
+            } else if ( c == '.' ) {
+                return null;
+            } else if ( c >= 128 || "^$?*+{}[]|)".indexOf( c ) >= 0 ) {
+                throw new IllegalArgumentException( "unexpected " + c );
+            }
+            return characters( p.substring( start, i ), false );
+        }
+
+        /** Skips the character after a backslash, if it is one of the analyzed escapes. */
+        char escape() {
+            char e = p.charAt( i++ );
+            if ( "dswDSW".indexOf( e ) < 0 && (e >= 128 || Character.isLetterOrDigit( e ))) {
+                throw new IllegalArgumentException( "escape \\" + e );
+            }
+            return e;
+        }
+
+        /**
+         *  Skips the quantifier at p[i], if there is one.
+         *
+         *  @return <code>true</code> if the quantifier allows zero repetitions.
+         */
+        boolean quantifier() {
+            if ( i >= p.length() ) {
+                return false;
+            }
+            char q = p.charAt( i );
+            boolean optional;
+            if ( q == '?' || q == '*' ) {
+                optional = true;
+                i++;
+            } else if ( q == '+' ) {
+                optional = false;
+                i++;
+            } else if ( q == '{' ) {
+                int close = p.indexOf( '}', i );
+                String[] bounds = p.substring( i+1, close ).split( ",", -1 );
+                if ( bounds.length > 2 ) {
+                    throw new IllegalArgumentException( "quantifier" );
+                }
+                // NumberFormatException is an IllegalArgumentException
+                optional = Integer.parseInt( bounds[0] ) == 0;
+                i = close + 1;
+            } else {
+                return false;
+            }
+            if ( i < p.length() && (p.charAt( i ) == '?' || p.charAt( i ) == '+' )) {
+                i++;
+            }
+            return optional;
+        }
+    }
+
+
+    /**
+     *  The ASCII characters that the single-character regular expression
+     *  <code>atom</code> matches, or null if it can also match some other
+     *  character. Only a character class can do that, so only then are all
+     *  the other characters tried.
+     */
+    private static boolean[] characters( String atom, boolean isClass ) {
+        Matcher m = Pattern.compile( atom ).matcher( "" );
+        boolean[] set = new boolean[128];
+        for ( int c=0; c<128; c++ ) {
+            set[c] = m.reset( String.valueOf( (char)c )).matches();
+        }
+        if ( isClass ) {
+            for ( int c=128; c<=Character.MAX_VALUE; c++ ) {
+                if ( m.reset( String.valueOf( (char)c )).matches() ) {
+                    return null;
+                }
+            }
+        }
+        return set;
+    }
+
+
+    private static void or( boolean[] union, boolean[] set ) {
+        for ( int c=0; c<128; c++ ) {
+            union[c] |= set[c];
+        }
+    }
+
+
+    private static boolean containsLetter( boolean[] set ) {
+        for ( int c=0; c<128; c++ ) {
+            if ( set[c] && Character.isLetter( c )) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
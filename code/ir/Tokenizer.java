@@ -9,14 +9,13 @@ package ir;
 
 import java.io.Reader;
 import java.io.IOException;
-import java.io.BufferedReader;
-import java.io.FileReader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.Arrays;
-import java.util.ArrayList;
-import java.util.regex.Pattern;
-import java.util.regex.Matcher;
-import java.util.regex.PatternSyntaxException;
 import java.lang.System;
 
 
@@ -50,8 +49,36 @@ public class Tokenizer {
      */
     public static final int BUFFER_LENGTH = 100001;
 
+    /**
+     *  The longest UTF-8 text (in bytes) that can be tokenized with
+     *  reset(ByteBuffer). Such a text has at most as many characters, so
+     *  it would fit into the buffer at once when read with a Reader.
+     */
+    public static final int MAX_BYTE_INPUT = BUFFER_LENGTH-1;
+
     /** The reader from where tokens are read. */
     Reader reader;
+
+    /** 
+     *  The UTF-8 encoded text from where tokens are read instead, if the
+     *  Tokenizer was reset with a ByteBuffer, and the current position and
+     *  the end of the text in it. This is the array of a heap buffer, or
+     *  byte_copy for other buffers.
+     */
+    byte[] bytes = null;
+    int byte_ptr = 0;
+    int byte_end = 0;
+
+    /** The bytes of a direct or mapped buffer, copied at once for a faster scan. */
+    byte[] byte_copy = null;
+
+    /**
+     *  Decodes the non-ASCII parts of the bytes (created when first needed),
+     *  which run wraps.
+     */
+    CharsetDecoder decoder = null;
+    ByteBuffer run = null;
+    CharBuffer decoded = null;
     
     /** 
      *  Characters are read @code{BUFFER_LENGTH} characters at a
@@ -65,14 +92,35 @@ public class Tokenizer {
     /** Starting position of current token, or -1 if we're between tokens. */
     int token_start = -1;
 
-    /** The next tokens to emit. */
-    ArrayList<String> token_queue = new ArrayList<String>();
+    /**
+     *  The next tokens to emit. The characters of the queued tokens are
+     *  copied one after the other into token_chars, and token i of the
+     *  queue is token_chars[token_starts[i] .. token_starts[i]+token_lengths[i]-1].
+     *  The tokens of the queue are read from queue_head, and the arrays are
+     *  reused from the start when the queue has become empty, so no objects
+     *  are allocated per token.
+     */
+    char[] token_chars = new char[256];
+    int token_chars_used = 0;
+    int[] token_starts = new int[16];
+    int[] token_lengths = new int[16];
+    int queue_head = 0;
+    int queue_tail = 0;
+
+    /** The view of the last token returned by nextTokenView(). */
+    private final Slice token_view = new Slice();
+
+    /** The view of the current candidate token, which the patterns are matched against. */
+    private final Slice candidate = new Slice();
+
+    /** Finds the non-standard words in a candidate token, with all patterns at once. */
+    TokenPatterns.Finder finder = null;
 
     /** @code{true} if we've started reading tokens. */
     boolean started_reading = false;
 
-    /** The patterns matching non-standard words (e-mail addresses, etc.) */
-    ArrayList<Pattern> patterns = null;
+    /** The flags and the patterns matching non-standard words (e-mail addresses, etc.) */
+    final TokenizerConfig config;
 
     /** Special characters (with diacritics) can be translated into these characters. */
     public static final char[] SPECIAL_CHAR_MAPPING = {
@@ -95,16 +143,90 @@ public class Tokenizer {
      *         for non-standard words (like dates, mail addresses, etc.).
      */
     public Tokenizer( Reader reader, boolean case_folding, boolean remove_diacritics, boolean remove_punctuation, String pattern_file ) {
+        this( reader, TokenizerConfig.get( case_folding, remove_diacritics, remove_punctuation, pattern_file ));
+    }
+
+
+    /**
+     *  Constructor
+     *  @param reader The reader from which to read the text to be tokenized. 
+     *  @param config The flags and compiled patterns, which may be shared
+     *         with other Tokenizers.
+     */
+    public Tokenizer( Reader reader, TokenizerConfig config ) {
         this.reader = reader;
-        this.case_folding = case_folding;
-        this.remove_diacritics = remove_diacritics;
-        this.remove_punctuation = remove_punctuation;
-        if ( pattern_file != null ) {
-            readPatterns( pattern_file );
+        this.config = config;
+        this.case_folding = config.case_folding;
+        this.remove_diacritics = config.remove_diacritics;
+        this.remove_punctuation = config.remove_punctuation;
+        if ( config.patterns != null ) {
+            finder = config.patterns.finder();
         }
     }
 
 
+    /**
+     *  Starts tokenizing a new text from <code>reader</code>, reusing the
+     *  buffers of this Tokenizer (which is much cheaper than creating a new
+     *  one for every document).
+     */
+    public void reset( Reader reader ) {
+        this.reader = reader;
+        bytes = null;
+        buf[0] = 0;
+        ptr = 0;
+        token_start = -1;
+        started_reading = false;
+        queue_head = queue_tail = token_chars_used = 0;
+    }
+
+
+    /**
+     *  Starts tokenizing the UTF-8 encoded text between the position and
+     *  the limit of <code>bytes</code> (e.g. a file read into a
+     *  ByteBuffer, or a MappedByteBuffer). The bytes are scanned directly,
+     *  and only the non-ASCII parts are decoded into characters, which is
+     *  much cheaper than decoding everything with an InputStreamReader for
+     *  a text that is mostly ASCII. The tokens are exactly the ones that
+     *  would be read from an InputStreamReader over the same bytes.
+     *
+     *  The bytes of a heap buffer are scanned in its array, so they must
+     *  not be changed until all tokens have been read. The position of the
+     *  buffer is not changed.
+     *
+     *  @throws IllegalArgumentException if the text is longer than
+     *          MAX_BYTE_INPUT bytes; longer texts have to be read with a Reader.
+     */
+    public void reset( ByteBuffer bytes ) {
+        if ( bytes.remaining() > MAX_BYTE_INPUT ) {
+            throw new IllegalArgumentException( "Text of " + bytes.remaining() + " bytes is longer than " + MAX_BYTE_INPUT );
+        }
+        this.reader = null;
+        if ( bytes.hasArray() ) {
+            this.bytes = bytes.array();
+            byte_ptr = bytes.arrayOffset()+bytes.position();
+        }
+        else {
+            if ( byte_copy == null ) {
+                byte_copy = new byte[MAX_BYTE_INPUT];
+            }
+            bytes.duplicate().get( byte_copy, 0, bytes.remaining() );
+            this.bytes = byte_copy;
+            byte_ptr = 0;
+        }
+        byte_end = byte_ptr+bytes.remaining();
+        if ( run == null || run.array() != this.bytes ) {
+            run = ByteBuffer.wrap( this.bytes );
+        }
+        // In byte mode, the current candidate token is collected in
+        // buf[0..ptr-1], and token_start is 0 while there is one.
+        ptr = 0;
+        token_start = -1;
+        started_reading = true;
+        queue_head = queue_tail = token_chars_used = 0;
+    }
+
+
     /** 
      *  Returns true if the character is a punctuation character.
      */
@@ -121,30 +243,6 @@ public class Tokenizer {
     }
 
 
-    /**
-     *  Read the patterns that match non-standard words  
-     */
-    private void readPatterns( String filename ) {
-        patterns = new ArrayList<Pattern>();
-        String line = null;
-        try {
-            BufferedReader in = new BufferedReader( new FileReader( filename ));
-            while (( line = in.readLine()) != null ) {
-                line = line.trim();
-                if ( !line.startsWith( "//" ) && line.length() > 0 ) {
-                    patterns.add( Pattern.compile( line ));
-                }
-            }
-        }
-        catch ( IOException e ) {
-            System.err.println( "Warning: IOException reading the regular expressions from file" );
-        }
-        catch ( PatternSyntaxException e ) {
-            System.err.println( "ERROR: Malformed regular expression: " + line );
-        }
-    }
-
-
     /** 
      *  Normalizes letters by converting to lower-case and possibly
      *  removing diacritics. This method is also used for checking
@@ -186,7 +284,7 @@ public class Tokenizer {
             readTokens();
             started_reading = true;
         }
-        if ( token_queue.size() == 0 ) 
+        if ( queue_head == queue_tail ) 
             return readTokens();
         else 
             return true;
@@ -198,15 +296,27 @@ public class Tokenizer {
      *  are no more tokens.
      */
     public String nextToken() throws IOException { 
-        if ( token_queue.size() == 0 ) {
-            if ( readTokens() )
-                return token_queue.remove( 0 );
-            else
+        CharSequence token = nextTokenView();
+        return token == null ? null : token.toString();
+    }
+
+
+    /**
+     *  Returns the next token like nextToken, but as a view of the internal
+     *  buffer instead of a new String. The view is reused, and is only valid
+     *  until the next call to hasMoreTokens, nextToken or nextTokenView, so a
+     *  consumer that keeps the token has to copy it (e.g. with toString).
+     *
+     *  @return the next token, or @code{null} if there are no more tokens.
+     */
+    public CharSequence nextTokenView() throws IOException {
+        if ( queue_head == queue_tail ) {
+            if ( !readTokens() )
                 return null;
         }
-        else {
-            return token_queue.remove( 0 );
-        }
+        token_view.set( token_chars, token_starts[queue_head], token_lengths[queue_head] );
+        queue_head++;
+        return token_view;
     }
 
 
@@ -214,10 +324,15 @@ public class Tokenizer {
      *  Reads the next token. 
      */ 
     private boolean readTokens() throws IOException {
+        if ( bytes != null ) {
+            return readTokensFromBytes();
+        }
         if ( !started_reading ) {
             refillBuffer( 0 );
             started_reading = true;
         }
+        // The queue is empty, so its arrays can be reused from the start.
+        queue_head = queue_tail = token_chars_used = 0;
         boolean token_added_to_queue = false;
         while ( buf[ptr] != 0 ) {
             if ( token_start < 0 ) {
@@ -264,6 +379,114 @@ public class Tokenizer {
     }
 
 
+    /**
+     *  Reads the next tokens from the bytes, like readTokens does from the
+     *  buffer. A token character is appended to the candidate token in
+     *  buf[0..ptr-1], and the candidate is split into tokens at the next
+     *  character that cannot occur in a token. ASCII bytes are classified
+     *  and case folded directly (an ASCII letter has no diacritics), and
+     *  runs of non-ASCII bytes are decoded and normalized as characters.
+     *  As with a Reader, the text ends at a NUL character, and a candidate
+     *  token at the very end of the text is not added.
+     */
+    private boolean readTokensFromBytes() {
+        queue_head = queue_tail = token_chars_used = 0;
+        while ( byte_ptr < byte_end ) {
+            int b = bytes[byte_ptr];
+            if ( b > 0 ) {
+                byte_ptr++;
+                if ( b >= '!' && b <= '~' ) {
+                    if ( case_folding && b >= 'A' && b <= 'Z' ) {
+                        b += 'a'-'A';
+                    }
+                    buf[ptr++] = (char)b;
+                    token_start = 0;
+                }
+                else if ( endCandidate() ) {
+                    return true;
+                }
+            }
+            else if ( b == 0 ) {
+                break;
+            }
+            else {
+                // Decode the run of non-ASCII bytes. An ASCII byte is never
+                // part of a multi-byte sequence, so the run decodes to the
+                // same characters as it does within the whole text.
+                int run_end = byte_ptr+1;
+                while ( run_end < byte_end && bytes[run_end] < 0 ) {
+                    run_end++;
+                }
+                decodeRun( run_end );
+                byte_ptr = run_end;
+                boolean token_ended = false;
+                while ( decoded.hasRemaining() ) {
+                    buf[ptr] = decoded.get();
+                    if ( normalize( buf, ptr )) {
+                        ptr++;
+                        token_start = 0;
+                    }
+                    else {
+                        token_ended |= endCandidate();
+                    }
+                }
+                if ( token_ended ) {
+                    return true;
+                }
+            }
+        }
+        // We have reached end of input. 
+        byte_ptr = byte_end;
+        token_start = -1;
+        ptr = 0;
+        return false;
+    }
+
+
+    /**
+     *  Splits the candidate token in buf[0..ptr-1] (if any) into tokens,
+     *  and starts a new candidate.
+     *
+     *  @return @code{true} if tokens were added to the queue.
+     */
+    private boolean endCandidate() {
+        boolean token_added_to_queue = addTokensToQueue();
+        token_start = -1;
+        ptr = 0;
+        return token_added_to_queue;
+    }
+
+
+    /**
+     *  Decodes the bytes from byte_ptr to run_end into the decoded buffer,
+     *  replacing malformed input like an InputStreamReader does. The run is
+     *  followed by an ASCII byte unless it ends the text.
+     */
+    private void decodeRun( int run_end ) {
+        if ( decoder == null ) {
+            decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput( CodingErrorAction.REPLACE )
+                .onUnmappableCharacter( CodingErrorAction.REPLACE );
+        }
+        int length = run_end-byte_ptr;
+        if ( decoded == null || decoded.capacity() < length ) {
+            // UTF-8 never decodes to more characters than there are bytes.
+            decoded = CharBuffer.allocate( Math.max( length, 256 ));
+        }
+        run.limit( run_end ).position( byte_ptr );
+        decoded.clear();
+        decoder.reset();
+        // An incomplete sequence at the very end of the text is not decoded,
+        // just like the Reader leaves it for a next read that never comes.
+        boolean complete = run_end < byte_end;
+        decoder.decode( run, decoded, complete );
+        if ( complete ) {
+            decoder.flush( decoded );
+        }
+        decoded.flip();
+    }
+
+
     /**
      *  Adds token to the queue
      */
@@ -271,67 +494,79 @@ public class Tokenizer {
         if ( token_start < 0 ) {
             return false;
         }
-        String s = new String( buf, token_start, ptr-token_start );
-        if ( patterns != null ) {
-            // Now let's see if the string s matches one of the patterns 
-            // for non-standard words
-            for ( Pattern p : patterns ) {
-                Matcher m = p.matcher( s );
-                if ( m.find() ) {
-                    // The string contains a non-standard word. First check the prefix 
-                    // before the matching substring, then add the non-standard word  
-                    // to the token queue, then check the remainder of the string.
-                    addStandardTokensToQueue( s.substring(0, m.start() ));
-                    token_queue.add( m.group() );
-                    token_start += m.end();
-                    addTokensToQueue();
-                    return true;
-                }
+        if ( finder != null ) {
+            // Now let's see if the candidate buf[token_start..ptr-1] matches
+            // one of the patterns for non-standard words
+            candidate.set( buf, token_start, ptr-token_start );
+            if ( finder.find( candidate )) {
+                // The string contains a non-standard word. First check the prefix 
+                // before the matching substring, then add the non-standard word  
+                // to the token queue, then check the remainder of the string.
+                int start = finder.start(), end = finder.end();
+                addStandardTokensToQueue( token_start, token_start+start );
+                enqueue( buf, token_start+start, end-start );
+                token_start += end;
+                addTokensToQueue();
+                return true;
             }
         }
         // This string contains only standard words
-        return addStandardTokensToQueue( s );
+        return addStandardTokensToQueue( token_start, ptr );
     }
 
 
     /**
      *  Adds standard tokens (i.e. tokens not matching any regular
-     *  expression) to the queue.
+     *  expression) in buf[start..end-1] to the queue.
      */
-    private boolean addStandardTokensToQueue( String s ) {
-        // This string s does not match any specific pattern.
+    private boolean addStandardTokensToQueue( int start, int end ) {
+        // This string does not match any specific pattern.
         // Then split it, considering all punctuation symbols
         // to be separators.
         boolean tokens_found = false;
-        StringBuffer smallbuf = new StringBuffer();
-        for ( int i=0; i<s.length(); i++ ) {
-            if ( punctuation( s.charAt( i ))) {
+        int word_start = start;
+        for ( int i=start; i<end; i++ ) {
+            if ( punctuation( buf[i] )) {
                 // The string before the punctuation sign is a token
                 // unless it is empty
-                String t = smallbuf.toString();
-                if ( t.length()>0 ) {
-                    token_queue.add( t );
-                    smallbuf = new StringBuffer();
+                if ( i > word_start ) {
+                    enqueue( buf, word_start, i-word_start );
                     tokens_found = true;
                 }
                 if ( !remove_punctuation ) {
-                    token_queue.add( "" + s.charAt( i ));
+                    enqueue( buf, i, 1 );
                     tokens_found = true;
                 }
-            }
-            else {
-                smallbuf.append( s.charAt( i ));
+                word_start = i+1;
             }
         }
         // The string after the last punctuation sign is a token
         // unless it is empty
-        String t = smallbuf.toString();
-        if ( t.length()>0 ) {
-            token_queue.add( t );
+        if ( end > word_start ) {
+            enqueue( buf, word_start, end-word_start );
             tokens_found = true;
         }   
         return tokens_found;
     }
+
+
+    /**
+     *  Copies chars[start..start+length-1] to the end of the token queue.
+     */
+    private void enqueue( char[] chars, int start, int length ) {
+        if ( token_chars_used + length > token_chars.length ) {
+            token_chars = Arrays.copyOf( token_chars, Math.max( 2*token_chars.length, token_chars_used+length ));
+        }
+        if ( queue_tail == token_starts.length ) {
+            token_starts = Arrays.copyOf( token_starts, 2*queue_tail );
+            token_lengths = Arrays.copyOf( token_lengths, 2*queue_tail );
+        }
+        System.arraycopy( chars, start, token_chars, token_chars_used, length );
+        token_starts[queue_tail] = token_chars_used;
+        token_lengths[queue_tail] = length;
+        queue_tail++;
+        token_chars_used += length;
+    }
     
 
     /**
@@ -344,5 +579,37 @@ public class Tokenizer {
         }
     }
 
-}
 
+    /**
+     *  A view of a slice of a char array, used for the tokens returned by
+     *  nextTokenView and for matching the patterns without copying.
+     */
+    public static final class Slice implements CharSequence {
+        char[] chars;
+        int start;
+        int length;
+
+        void set( char[] chars, int start, int length ) {
+            this.chars = chars;
+            this.start = start;
+            this.length = length;
+        }
+
+        public int length() {
+            return length;
+        }
+
+        public char charAt( int index ) {
+            return chars[start+index];
+        }
+
+        public CharSequence subSequence( int from, int to ) {
+            return new String( chars, start+from, to-from );
+        }
+
+        public String toString() {
+            return new String( chars, start, length );
+        }
+    }
+
+}
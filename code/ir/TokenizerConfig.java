@@ -0,0 +1,103 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ *
+ *   Serhan Cakmak, 2024
+ */
+
+package ir;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+
+/**
+ *   The settings of a Tokenizer: the normalization flags and the compiled
+ *   patterns for non-standard words.
+ *
+ *   A TokenizerConfig is immutable, so one can be shared by all Tokenizers,
+ *   also on different threads. get() caches the configurations by their
+ *   flags and patterns file, so the patterns file is read and compiled
+ *   once, and not once per document.
+ */
+public final class TokenizerConfig {
+
+    /** Turn all letters into lowercase. */
+    public final boolean case_folding;
+
+    /** Remove diacritics (accents etc.). */
+    public final boolean remove_diacritics;
+
+    /** Remove punctuation (full stops etc.). */
+    public final boolean remove_punctuation;
+
+    /** The patterns for non-standard words, or null if there are none. */
+    public final TokenPatterns patterns;
+
+    /** The configurations returned by get(). */
+    private static final ConcurrentHashMap<String,TokenizerConfig> cache = new ConcurrentHashMap<String,TokenizerConfig>();
+
+
+    public TokenizerConfig( boolean case_folding, boolean remove_diacritics, boolean remove_punctuation, List<Pattern> patterns ) {
+        this.case_folding = case_folding;
+        this.remove_diacritics = remove_diacritics;
+        this.remove_punctuation = remove_punctuation;
+        this.patterns = patterns != null ? new TokenPatterns( patterns ) : null;
+    }
+
+
+    /**
+     *  Returns the (shared) configuration with the given flags and the
+     *  patterns of <code>pattern_file</code>, which may be null. The file is
+     *  read again if it has changed since it was last read.
+     */
+    public static TokenizerConfig get( boolean case_folding, boolean remove_diacritics, boolean remove_punctuation, String pattern_file ) {
+        String key = case_folding + " " + remove_diacritics + " " + remove_punctuation;
+        if ( pattern_file != null ) {
+            File f = new File( pattern_file );
+            key += " " + f.lastModified() + " " + f.length() + " " + pattern_file;
+        }
+        TokenizerConfig config = cache.get( key );
+        if ( config == null ) {
+            List<Pattern> patterns = pattern_file != null ? readPatterns( pattern_file ) : null;
+            config = new TokenizerConfig( case_folding, remove_diacritics, remove_punctuation, patterns );
+            TokenizerConfig old = cache.putIfAbsent( key, config );
+            if ( old != null ) {
+                config = old;
+            }
+        }
+        return config;
+    }
+
+
+    /**
+     *  Reads the patterns that match non-standard words, one per line.
+     *  Empty lines and lines starting with // are skipped.
+     */
+    static ArrayList<Pattern> readPatterns( String filename ) {
+        ArrayList<Pattern> patterns = new ArrayList<Pattern>();
+        String line = null;
+        try ( BufferedReader in = new BufferedReader( new FileReader( filename ))) {
+            while (( line = in.readLine()) != null ) {
+                line = line.trim();
+                if ( !line.startsWith( "//" ) && line.length() > 0 ) {
+                    patterns.add( Pattern.compile( line ));
+                }
+            }
+        }
+        catch ( IOException e ) {
+            System.err.println( "Warning: IOException reading the regular expressions from file" );
+        }
+        catch ( PatternSyntaxException e ) {
+            System.err.println( "ERROR: Malformed regular expression: " + line );
+        }
+        return patterns;
+    }
+}